@@ -0,0 +1,54 @@
+package com.tifires.genesis.packager.bench;
+
+import com.tifires.genesis.packager.commons.CompiledCode;
+import com.tifires.genesis.packager.compile.Compiler;
+import com.tifires.genesis.packager.compile.DynamicClassLoader;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Defining compiled classes through {@link DynamicClassLoader}: every run loads all classes in a new loader,
+ * so each load goes through findClass and defineClass.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ClassLoaderBenchmark {
+
+    @Param({"10", "200"})
+    public int classes;
+
+    private List<CompiledCode> compiledCodes;
+
+    @Setup
+    public void setUp() throws Exception {
+        Compiler compiler = Compiler.newInstance();
+        for (Map.Entry<String, String> source : Workloads.sources(classes).entrySet())
+            compiler.addSource(source.getKey(), source.getValue());
+        compiler.compileAll();
+        compiledCodes = new ArrayList<>(compiler.getCompiledCodes().values());
+    }
+
+    @Benchmark
+    public void findClass(Blackhole blackhole) throws ClassNotFoundException {
+        load(blackhole);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void findClassConcurrent(Blackhole blackhole) throws ClassNotFoundException {
+        load(blackhole);
+    }
+
+    private void load(Blackhole blackhole) throws ClassNotFoundException {
+        DynamicClassLoader loader = new DynamicClassLoader(ClassLoader.getSystemClassLoader());
+        compiledCodes.forEach(loader::addCode);
+        for (CompiledCode compiledCode : compiledCodes)
+            blackhole.consume(loader.loadClass(compiledCode.getClassName()));
+    }
+}
@@ -0,0 +1,68 @@
+package com.tifires.genesis.packager.bench;
+
+import com.tifires.genesis.packager.compile.Compiler;
+import com.tifires.genesis.packager.compile.CompilerEngine;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compilation of a single class and of generated class graphs, with a cold compiler per run or through a
+ * shared warmed engine.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CompilerBenchmark {
+
+    @Param({"10", "100"})
+    public int classes;
+
+    @Param({"false", "true"})
+    public boolean sharedEngine;
+
+    private Map<String, String> sources;
+    private String single;
+    private CompilerEngine engine;
+
+    @Setup
+    public void setUp() {
+        sources = Workloads.sources(classes);
+        single = Workloads.source(0);
+        if (sharedEngine)
+            engine = CompilerEngine.newInstance().warmUp();
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (engine != null)
+            engine.close();
+    }
+
+    @Benchmark
+    public Class<?> compileSingle() throws Exception {
+        return newCompiler().compile(Workloads.PACKAGE + ".Generated0", single);
+    }
+
+    @Benchmark
+    public Map<String, Class<?>> compileGraph() throws Exception {
+        Compiler compiler = newCompiler();
+        for (Map.Entry<String, String> source : sources.entrySet())
+            compiler.addSource(source.getKey(), source.getValue());
+        return compiler.compileAll();
+    }
+
+    @Benchmark
+    public Map<String, Class<?>> compileGraphParallel() throws Exception {
+        Compiler compiler = newCompiler().parallel().usePartitionSize(8);
+        for (Map.Entry<String, String> source : sources.entrySet())
+            compiler.addSource(source.getKey(), source.getValue());
+        return compiler.compileAll();
+    }
+
+    private Compiler newCompiler() {
+        Compiler compiler = Compiler.newInstance();
+        return engine != null ? compiler.useEngine(engine) : compiler;
+    }
+}
@@ -0,0 +1,41 @@
+package com.tifires.genesis.packager.bench;
+
+import com.tifires.genesis.packager.commons.Resource;
+import com.tifires.genesis.packager.pack.Packager;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory packing of one class with a varying number and size of resources.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PackagerBenchmark {
+
+    @Param({"10", "1000"})
+    public int resources;
+
+    @Param({"256", "65536"})
+    public int resourceSize;
+
+    private Resource[] content;
+
+    @Setup
+    public void setUp() {
+        content = new Resource[resources];
+        for (int i = 0; i < resources; i++)
+            content[i] = new Resource("resource" + i + ".json", Workloads.content(resourceSize, i));
+    }
+
+    @Benchmark
+    public ByteBuffer packInMemory() throws IOException {
+        return Packager.newInstance()
+                .addSource(Workloads.PACKAGE + ".Generated0", Workloads.source(0))
+                .addResources("data", content)
+                .packToBuffer(false);
+    }
+}
@@ -0,0 +1,53 @@
+package com.tifires.genesis.packager.bench;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tifires.genesis.packager.commons.Resource;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON serialization of resources: a mapper per call (the former behaviour) against the shared writers,
+ * eager to a byte array or streamed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ResourceSerializationBenchmark {
+    private static final OutputStream DISCARD = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    @Param({"128", "16384"})
+    public int size;
+
+    private Workloads.Payload payload;
+
+    @Setup
+    public void setUp() {
+        payload = Workloads.payload(size, 42);
+    }
+
+    @Benchmark
+    public byte[] newMapperPerCall() throws IOException {
+        return new ObjectMapper().writeValueAsBytes(payload);
+    }
+
+    @Benchmark
+    public byte[] sharedWriter() throws IOException {
+        return new Resource("payload.json", payload).getContent();
+    }
+
+    @Benchmark
+    public void streamed() throws IOException {
+        Resource.ofObject("payload.json", payload).writeTo(DISCARD);
+    }
+}
@@ -0,0 +1,131 @@
+package com.tifires.genesis.packager.bench;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Synthetic, deterministic inputs shared by the benchmarks.
+ */
+final class Workloads {
+    static final String PACKAGE = "com.tifires.bench";
+
+    private Workloads() {
+    }
+
+    /**
+     * Sources of a dependency graph: class i extends nothing but uses classes i - 1 and i / 2, so the graph
+     * is connected, acyclic and a few levels deep.
+     *
+     * @param count
+     * @return source content by class name
+     */
+    static Map<String, String> sources(int count) {
+        Map<String, String> sources = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++)
+            sources.put(PACKAGE + ".Generated" + i, source(i));
+        return sources;
+    }
+
+    static String source(int i) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("package ").append(PACKAGE).append(";\n\n");
+        sb.append("import java.util.*;\n\n");
+        sb.append("public class Generated").append(i).append(" {\n");
+        sb.append("    private final List<String> values = new ArrayList<>();\n");
+        sb.append("    private int counter = ").append(i).append(";\n\n");
+        if (i > 0) {
+            sb.append("    public int previous(Generated").append(i - 1).append(" previous) {\n");
+            sb.append("        return previous.compute(counter) + 1;\n");
+            sb.append("    }\n\n");
+            sb.append("    public String half() {\n");
+            sb.append("        return new Generated").append(i / 2).append("().describe();\n");
+            sb.append("    }\n\n");
+        }
+        sb.append("    public int compute(int seed) {\n");
+        sb.append("        int result = seed;\n");
+        sb.append("        for (int j = 0; j < ").append(i % 7 + 3).append("; j++)\n");
+        sb.append("            result = result * 31 + j;\n");
+        sb.append("        return result;\n");
+        sb.append("    }\n\n");
+        sb.append("    public String describe() {\n");
+        sb.append("        values.add(String.valueOf(counter++));\n");
+        sb.append("        return getClass().getSimpleName() + values;\n");
+        sb.append("    }\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    /**
+     * @param size approximate JSON size in bytes
+     * @param seed
+     * @return
+     */
+    static Payload payload(int size, int seed) {
+        Random random = new Random(seed);
+        Payload payload = new Payload();
+        payload.setId(seed);
+        payload.setName("payload-" + seed);
+        int entries = Math.max(1, size / 24);
+        for (int i = 0; i < entries; i++) {
+            if (i % 2 == 0)
+                payload.getTags().add("tag" + random.nextInt(100000));
+            else
+                payload.getValues().put("key" + i, random.nextLong());
+        }
+        return payload;
+    }
+
+    /**
+     * @param size
+     * @param seed
+     * @return compressible bytes, a repeated JSON-like text with some noise
+     */
+    static byte[] content(int size, int seed) {
+        Random random = new Random(seed);
+        byte[] content = new byte[size];
+        byte[] pattern = "{\"name\":\"value\",\"count\":12345,\"enabled\":true}\n".getBytes();
+        for (int i = 0; i < size; i++)
+            content[i] = random.nextInt(16) == 0 ? (byte) ('a' + random.nextInt(26)) : pattern[i % pattern.length];
+        return content;
+    }
+
+    public static class Payload implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private long id;
+        private String name;
+        private List<String> tags = new ArrayList<>();
+        private Map<String, Long> values = new LinkedHashMap<>();
+
+        public long getId() {
+            return id;
+        }
+
+        public void setId(long id) {
+            this.id = id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public List<String> getTags() {
+            return tags;
+        }
+
+        public void setTags(List<String> tags) {
+            this.tags = tags;
+        }
+
+        public Map<String, Long> getValues() {
+            return values;
+        }
+
+        public void setValues(Map<String, Long> values) {
+            this.values = values;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.tifires.genesis.packager.commons;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Objects;
+
+/**
+ * Resource backed by the remaining bytes of a buffer, such as a memory-mapped file, unless its content
+ * is set explicitly. The position of the buffer is never modified.
+ */
+public class BufferResource extends Resource {
+    private final ByteBuffer buffer;
+
+    public BufferResource(String filename, ByteBuffer buffer) {
+        super(Objects.requireNonNull(filename));
+        this.buffer = Objects.requireNonNull(buffer).duplicate();
+    }
+
+    public ByteBuffer getBuffer() {
+        return buffer.duplicate();
+    }
+
+    @Override
+    public byte[] getContent() {
+        if (super.getContent() != null)
+            return super.getContent();
+        byte[] content = new byte[buffer.remaining()];
+        buffer.duplicate().get(content);
+        return content;
+    }
+
+    @Override
+    public long getSize() {
+        return super.getContent() != null ? super.getSize() : buffer.remaining();
+    }
+
+    @Override
+    public InputStream openStream() throws IOException {
+        if (super.getContent() != null)
+            return super.openStream();
+        ByteBuffer source = buffer.duplicate();
+        return new InputStream() {
+            @Override
+            public int read() {
+                return source.hasRemaining() ? source.get() & 0xFF : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (!source.hasRemaining())
+                    return -1;
+                int length = Math.min(len, source.remaining());
+                source.get(b, off, length);
+                return length;
+            }
+
+            @Override
+            public int available() {
+                return source.remaining();
+            }
+        };
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        if (super.getContent() != null) {
+            super.writeTo(out);
+        } else if (buffer.hasArray()) {
+            out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        } else {
+            ByteBuffer source = buffer.duplicate();
+            byte[] chunk = new byte[Math.min(64 * 1024, source.remaining())];
+            while (source.hasRemaining()) {
+                int length = Math.min(chunk.length, source.remaining());
+                source.get(chunk, 0, length);
+                out.write(chunk, 0, length);
+            }
+        }
+    }
+
+    @Override
+    public long transferTo(WritableByteChannel channel) throws IOException {
+        if (super.getContent() != null)
+            return super.transferTo(channel);
+        ByteBuffer source = buffer.duplicate();
+        while (source.hasRemaining())
+            channel.write(source);
+        return buffer.remaining();
+    }
+}
@@ -0,0 +1,86 @@
+package com.tifires.genesis.packager.commons;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Append-only store keeping bytecode in large slabs, off-heap by default.
+ * <p>
+ * Each class takes exactly its size in the current slab; a class larger than a slab gets a buffer of its own.
+ * Nothing is freed individually: a slab goes away once no bytecode stored in it is referenced any more, so a
+ * store is meant to live as long as the class loaders whose bytecode it holds.
+ */
+public class BytecodeStore {
+    private final int slabSize;
+    private final boolean direct;
+    private ByteBuffer slab;
+    private long allocated = 0;
+    private long used = 0;
+
+    /**
+     * @return store allocating off-heap slabs of 1MB
+     */
+    public static BytecodeStore newInstance() {
+        return newInstance(1 << 20, true);
+    }
+
+    /**
+     * @param slabSize size of the buffers the bytecode is copied into
+     * @param direct   whether the slabs live off-heap
+     * @return
+     */
+    public static BytecodeStore newInstance(int slabSize, boolean direct) {
+        return new BytecodeStore(slabSize, direct);
+    }
+
+    private BytecodeStore(int slabSize, boolean direct) {
+        if (slabSize < 1)
+            throw new IllegalArgumentException("slabSize must be positive");
+        this.slabSize = slabSize;
+        this.direct = direct;
+    }
+
+    /**
+     * Copy the given bytecode into the store.
+     *
+     * @param byteCode
+     * @return read-only view of the stored bytecode
+     */
+    public synchronized ByteBuffer put(ByteBuffer byteCode) {
+        int size = byteCode.remaining();
+        ByteBuffer target;
+        if (size > slabSize) {
+            target = allocate(size);
+        } else {
+            if (slab == null || slab.remaining() < size)
+                slab = allocate(slabSize);
+            target = slab;
+        }
+        int position = target.position();
+        target.put(byteCode.duplicate());
+        used += size;
+
+        ByteBuffer stored = target.duplicate();
+        stored.position(position);
+        stored.limit(position + size);
+        return stored.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * @return bytes taken by the slabs
+     */
+    public synchronized long getAllocated() {
+        return allocated;
+    }
+
+    /**
+     * @return bytes of bytecode stored
+     */
+    public synchronized long getUsed() {
+        return used;
+    }
+
+    private ByteBuffer allocate(int size) {
+        allocated += size;
+        return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+    }
+}
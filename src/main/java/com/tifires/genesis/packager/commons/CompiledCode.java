@@ -1,33 +1,120 @@
 package com.tifires.genesis.packager.commons;
 
 import javax.tools.SimpleJavaFileObject;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.OutputStream;
+import java.io.*;
 import java.net.URI;
+import java.nio.ByteBuffer;
 
 /**
  * Created by trung on 5/3/15.
  */
 public class CompiledCode extends SimpleJavaFileObject {
-    private ByteArrayOutputStream baos = new ByteArrayOutputStream();
     private String className;
+    // exact-size bytecode once javac is done, on the heap until moved to a store
+    private volatile byte[] byteCode;
+    private volatile ByteBuffer stored;
 
     public CompiledCode(String className) throws Exception {
         super(new URI(className), Kind.CLASS);
         this.className = className;
     }
-    
+
+    /**
+     * @param className
+     * @param byteCode  kept as is, not copied
+     * @throws Exception
+     */
+    public CompiledCode(String className, byte[] byteCode) throws Exception {
+        this(className);
+        this.byteCode = byteCode;
+    }
+
     public String getClassName() {
-		return className;
-	}
+        return className;
+    }
+
+    /**
+     * @return true once javac is done writing the bytecode
+     */
+    public boolean isComplete() {
+        return byteCode != null || stored != null;
+    }
 
     @Override
     public OutputStream openOutputStream() throws IOException {
-        return baos;
+        return new ByteArrayOutputStream() {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                stored = null;
+                byteCode = toByteArray();
+            }
+        };
+    }
+
+    @Override
+    public InputStream openInputStream() throws IOException {
+        return new ByteArrayInputStream(getByteCode());
+    }
+
+    @Override
+    public boolean isNameCompatible(String simpleName, Kind kind) {
+        return kind == Kind.CLASS && className.substring(className.lastIndexOf('.') + 1).equals(simpleName);
     }
 
+    /**
+     * @return the bytecode, shared and not to be modified; a copy when the bytecode was moved to a store
+     */
     public byte[] getByteCode() {
-        return baos.toByteArray();
+        byte[] heap = byteCode;
+        if (heap != null)
+            return heap;
+        ByteBuffer buffer = stored;
+        if (buffer == null)
+            return new byte[0];
+        byte[] copy = new byte[buffer.remaining()];
+        buffer.duplicate().get(copy);
+        return copy;
+    }
+
+    /**
+     * @return read-only view of the bytecode, never copied
+     */
+    public ByteBuffer getByteBuffer() {
+        byte[] heap = byteCode;
+        if (heap != null)
+            return ByteBuffer.wrap(heap).asReadOnlyBuffer();
+        ByteBuffer buffer = stored;
+        return buffer == null ? ByteBuffer.allocate(0) : buffer.duplicate();
+    }
+
+    public int getSize() {
+        byte[] heap = byteCode;
+        if (heap != null)
+            return heap.length;
+        ByteBuffer buffer = stored;
+        return buffer == null ? 0 : buffer.remaining();
+    }
+
+    /**
+     * @return true when the bytecode was moved to a {@link BytecodeStore}
+     */
+    public boolean isStored() {
+        return stored != null;
+    }
+
+    /**
+     * Move the bytecode to the given store, releasing its heap copy. A no-op until javac is done writing it,
+     * or when it was moved already.
+     *
+     * @param store
+     */
+    public synchronized void moveTo(BytecodeStore store) {
+        byte[] heap = byteCode;
+        if (heap == null)
+            return;
+        // readers see either copy, never none
+        stored = store.put(ByteBuffer.wrap(heap));
+        byteCode = null;
     }
 }
@@ -0,0 +1,68 @@
+package com.tifires.genesis.packager.commons;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Objects;
+
+/**
+ * Jackson based serializer, JSON by default. One {@link ObjectWriter} is built per serialized type and
+ * reused, so its serializers are only resolved once.
+ * <p>
+ * The mapper caches every type it serialized, so types of dynamically loaded classes stay reachable as long
+ * as the mapper does: give such classes a mapper of their own, dropped with their class loader, rather than
+ * the {@link #getDefault() default} one.
+ * <p>
+ * Any format Jackson has a factory for can be used by passing the matching mapper, e.g.
+ * {@code new ObjectMapper(new SmileFactory())} or {@code new ObjectMapper(new CBORFactory())} with the
+ * jackson-dataformat module on the classpath.
+ */
+public class JacksonSerializer implements ResourceSerializer {
+    private static final JacksonSerializer DEFAULT = new JacksonSerializer(new ObjectMapper());
+
+    private final ObjectMapper mapper;
+    // ClassValue rather than a map keyed by class, so that this cache alone does not pin the serialized types.
+    // The mapper's own serializer and type caches still hold them, for as long as the mapper lives
+    private final ClassValue<ObjectWriter> writers = new ClassValue<ObjectWriter>() {
+        @Override
+        protected ObjectWriter computeValue(Class<?> type) {
+            return mapper.writerFor(type).without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        }
+    };
+
+    /**
+     * @return JSON serializer shared by the whole JVM
+     */
+    public static JacksonSerializer getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @param mapper must not be reconfigured afterwards
+     * @return
+     */
+    public static JacksonSerializer newInstance(ObjectMapper mapper) {
+        return new JacksonSerializer(mapper);
+    }
+
+    private JacksonSerializer(ObjectMapper mapper) {
+        this.mapper = Objects.requireNonNull(mapper);
+    }
+
+    public ObjectWriter writerFor(Class<?> type) {
+        return writers.get(type);
+    }
+
+    @Override
+    public byte[] serialize(Object value) throws IOException {
+        return writerFor(value.getClass()).writeValueAsBytes(value);
+    }
+
+    @Override
+    public void serialize(Object value, OutputStream out) throws IOException {
+        writerFor(value.getClass()).writeValue(out, value);
+    }
+}
@@ -0,0 +1,62 @@
+package com.tifires.genesis.packager.commons;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Objects;
+
+/**
+ * Resource serializing an object when it is written, straight into the target stream, unless its content
+ * is set explicitly. The object must not change until the resource is written.
+ */
+public class ObjectResource extends Resource {
+    private final Object value;
+    private final ResourceSerializer serializer;
+
+    public ObjectResource(String filename, Object value, ResourceSerializer serializer) {
+        super(Objects.requireNonNull(filename));
+        this.value = Objects.requireNonNull(value);
+        this.serializer = Objects.requireNonNull(serializer);
+    }
+
+    public Object getValue() {
+        return value;
+    }
+
+    @Override
+    public byte[] getContent() {
+        if (super.getContent() != null)
+            return super.getContent();
+        try {
+            return serializer.serialize(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public InputStream openStream() throws IOException {
+        return super.getContent() != null ? super.openStream() : new ByteArrayInputStream(getContent());
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        if (super.getContent() != null)
+            super.writeTo(out);
+        else
+            serializer.serialize(value, out);
+    }
+
+    @Override
+    public long transferTo(WritableByteChannel channel) throws IOException {
+        if (super.getContent() != null)
+            return super.transferTo(channel);
+        StreamResource.CountingStream counting = new StreamResource.CountingStream(Channels.newOutputStream(channel));
+        writeTo(counting);
+        return counting.count;
+    }
+}
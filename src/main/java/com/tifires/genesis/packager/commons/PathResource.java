@@ -0,0 +1,91 @@
+package com.tifires.genesis.packager.commons;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+/**
+ * Resource whose content is read from a file when it is written, unless set explicitly.
+ */
+public class PathResource extends Resource {
+    private final Path path;
+
+    public PathResource(String filename, Path path) {
+        super(Objects.requireNonNull(filename));
+        this.path = Objects.requireNonNull(path);
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Loads the whole file on the heap, prefer {@link #writeTo(OutputStream)} or
+     * {@link #transferTo(WritableByteChannel)}.
+     */
+    @Override
+    public byte[] getContent() {
+        if (super.getContent() != null)
+            return super.getContent();
+        try {
+            return Files.readAllBytes(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public long getSize() {
+        if (super.getContent() != null)
+            return super.getSize();
+        try {
+            return Files.size(path);
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public InputStream openStream() throws IOException {
+        return super.getContent() != null ? super.openStream() : Files.newInputStream(path);
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        if (super.getContent() != null)
+            super.writeTo(out);
+        else
+            Files.copy(path, out);
+    }
+
+    /**
+     * Copies the file with {@link FileChannel#transferTo(long, long, WritableByteChannel)}, letting the
+     * operating system move the bytes when the target is a file too.
+     *
+     * @return bytes copied, fewer than the file size if the file shrinks meanwhile
+     */
+    @Override
+    public long transferTo(WritableByteChannel channel) throws IOException {
+        if (super.getContent() != null)
+            return super.transferTo(channel);
+        try (FileChannel source = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = source.size();
+            long position = 0;
+            while (position < size) {
+                long transferred = source.transferTo(position, size - position, channel);
+                // nothing left past the position, the file was truncated
+                if (transferred <= 0)
+                    break;
+                position += transferred;
+            }
+            return position;
+        }
+    }
+}
@@ -1,12 +1,14 @@
 package com.tifires.genesis.packager.commons;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.Serializable;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Objects;
 import java.util.Properties;
+import java.util.function.Supplier;
 
 public class Resource {
     private String filename;
@@ -18,7 +20,12 @@ public class Resource {
 
     public Resource(String filename, Serializable serializable) throws IOException {
         this.filename = Objects.requireNonNull(filename);
-        content = new ObjectMapper().writeValueAsBytes(Objects.requireNonNull(serializable));
+        content = JacksonSerializer.getDefault().serialize(Objects.requireNonNull(serializable));
+    }
+
+    public Resource(String filename, Object value, ResourceSerializer serializer) throws IOException {
+        this.filename = Objects.requireNonNull(filename);
+        content = serializer.serialize(Objects.requireNonNull(value));
     }
 
     public Resource(String filename, byte[] content) {
@@ -27,6 +34,71 @@ public class Resource {
         this.content = Objects.requireNonNull(content);
     }
 
+    /**
+     * Resource streaming the content of a file when it is written.
+     *
+     * @param filename
+     * @param path
+     * @return
+     */
+    public static Resource ofPath(String filename, Path path) {
+        return new PathResource(filename, path);
+    }
+
+    /**
+     * Resource backed by a buffer, e.g. a {@link java.nio.MappedByteBuffer}. Its remaining bytes are
+     * the content, the buffer position is never modified.
+     *
+     * @param filename
+     * @param buffer
+     * @return
+     */
+    public static Resource ofBuffer(String filename, ByteBuffer buffer) {
+        return new BufferResource(filename, buffer);
+    }
+
+    /**
+     * Resource backed by a read-only memory mapping of a file.
+     *
+     * @param filename
+     * @param path
+     * @return
+     * @throws IOException
+     */
+    public static Resource ofMappedFile(String filename, Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new BufferResource(filename, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Resource reading its content from a new stream each time it is written.
+     *
+     * @param filename
+     * @param stream
+     * @return
+     */
+    public static Resource ofStream(String filename, Supplier<InputStream> stream) {
+        return new StreamResource(filename, stream, -1);
+    }
+
+    /**
+     * Resource serialized to JSON when it is written, without an intermediate byte array. Its size is unknown
+     * until then, so jar entries are compressed on the writing thread: prefer
+     * {@link #Resource(String, Serializable)} for many small objects packed concurrently.
+     *
+     * @param filename
+     * @param value
+     * @return
+     */
+    public static Resource ofObject(String filename, Object value) {
+        return new ObjectResource(filename, value, JacksonSerializer.getDefault());
+    }
+
+    public static Resource ofObject(String filename, Object value, ResourceSerializer serializer) {
+        return new ObjectResource(filename, value, serializer);
+    }
+
     public String getFilename() {
         return filename;
     }
@@ -44,7 +116,42 @@ public class Resource {
     }
 
     public void setContent(Serializable serializable) throws IOException {
-        content = new ObjectMapper().writeValueAsBytes(Objects.requireNonNull(serializable));
+        content = JacksonSerializer.getDefault().serialize(Objects.requireNonNull(serializable));
+    }
+
+    /**
+     * @return content size in bytes, -1 when unknown until the content is read
+     */
+    public long getSize() {
+        return content == null ? -1 : content.length;
+    }
+
+    public InputStream openStream() throws IOException {
+        return new ByteArrayInputStream(Objects.requireNonNull(content, "No content"));
+    }
+
+    /**
+     * Write the content to the given stream, left open.
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(Objects.requireNonNull(content, "No content"));
+    }
+
+    /**
+     * Write the content to the given channel, left open.
+     *
+     * @param channel
+     * @return number of bytes written
+     * @throws IOException
+     */
+    public long transferTo(WritableByteChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Objects.requireNonNull(content, "No content"));
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        return content.length;
     }
 
     public void setPropertiesContent(Properties properties) throws IOException {
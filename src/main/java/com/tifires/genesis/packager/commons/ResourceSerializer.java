@@ -0,0 +1,22 @@
+package com.tifires.genesis.packager.commons;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Turns the objects given to {@link Resource} into their file content. Implementations are shared by every
+ * resource and must be thread-safe.
+ */
+public interface ResourceSerializer {
+
+    byte[] serialize(Object value) throws IOException;
+
+    /**
+     * Serialize straight into the given stream, left open.
+     *
+     * @param value
+     * @param out
+     * @throws IOException
+     */
+    void serialize(Object value, OutputStream out) throws IOException;
+}
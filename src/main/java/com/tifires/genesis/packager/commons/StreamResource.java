@@ -0,0 +1,103 @@
+package com.tifires.genesis.packager.commons;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * Resource reading its content from a fresh stream every time it is written, unless set explicitly.
+ */
+public class StreamResource extends Resource {
+    private final Supplier<InputStream> stream;
+    private final long size;
+
+    /**
+     * @param filename
+     * @param stream   supplies a new stream over the whole content on each call
+     * @param size     content size if known upfront, -1 otherwise
+     */
+    public StreamResource(String filename, Supplier<InputStream> stream, long size) {
+        super(Objects.requireNonNull(filename));
+        this.stream = Objects.requireNonNull(stream);
+        this.size = size;
+    }
+
+    @Override
+    public byte[] getContent() {
+        if (super.getContent() != null)
+            return super.getContent();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            writeTo(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public long getSize() {
+        return super.getContent() != null ? super.getSize() : size;
+    }
+
+    @Override
+    public InputStream openStream() throws IOException {
+        if (super.getContent() != null)
+            return super.openStream();
+        InputStream in = stream.get();
+        if (in == null)
+            throw new IOException("No content for " + getFilename());
+        return in;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        if (super.getContent() != null) {
+            super.writeTo(out);
+            return;
+        }
+        try (InputStream in = openStream()) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1)
+                out.write(buffer, 0, read);
+        }
+    }
+
+    @Override
+    public long transferTo(WritableByteChannel channel) throws IOException {
+        if (super.getContent() != null)
+            return super.transferTo(channel);
+        OutputStream out = Channels.newOutputStream(channel);
+        CountingStream counting = new CountingStream(out);
+        writeTo(counting);
+        return counting.count;
+    }
+
+    static class CountingStream extends OutputStream {
+        private final OutputStream out;
+        long count;
+
+        CountingStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
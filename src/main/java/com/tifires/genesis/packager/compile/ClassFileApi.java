@@ -0,0 +1,162 @@
+package com.tifires.genesis.packager.compile;
+
+import com.tifires.genesis.stuffs.Utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads the API of a class straight from its bytecode: class header, non-private fields and methods with
+ * their descriptors, generic signatures, thrown exceptions and compile-time constants. Two classes with the
+ * same API hash are interchangeable for the code compiled against them.
+ */
+final class ClassFileApi {
+    private static final int ACC_PRIVATE = 0x0002;
+    private static final int ACC_SUPER = 0x0020;
+
+    private ClassFileApi() {
+    }
+
+    static String hash(byte[] byteCode) {
+        try {
+            return Utils.toHex(Utils.sha256().digest(describe(byteCode).getBytes(StandardCharsets.UTF_8)));
+        } catch (IOException | RuntimeException e) {
+            // unreadable bytecode, never equal to anything
+            return "?" + System.identityHashCode(byteCode);
+        }
+    }
+
+    static String hash(List<byte[]> byteCodes) {
+        if (byteCodes.size() == 1)
+            return hash(byteCodes.get(0));
+        MessageDigest digest = Utils.sha256();
+        byteCodes.forEach(byteCode -> digest.update(hash(byteCode).getBytes(StandardCharsets.UTF_8)));
+        return Utils.toHex(digest.digest());
+    }
+
+    private static String describe(byte[] byteCode) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(byteCode));
+        if (in.readInt() != 0xCAFEBABE)
+            throw new IOException("Not a class file");
+        in.readUnsignedShort();
+        in.readUnsignedShort();
+        Object[] pool = readConstantPool(in);
+
+        StringBuilder api = new StringBuilder();
+        api.append("class ").append(in.readUnsignedShort() & ~ACC_SUPER);
+        api.append(' ').append(className(pool, in.readUnsignedShort()));
+        int superClass = in.readUnsignedShort();
+        api.append(" extends ").append(superClass == 0 ? "" : className(pool, superClass));
+        List<String> interfaces = new ArrayList<>();
+        for (int i = in.readUnsignedShort(); i > 0; i--)
+            interfaces.add(className(pool, in.readUnsignedShort()));
+        Collections.sort(interfaces);
+        api.append(" implements ").append(interfaces).append('\n');
+
+        List<String> members = new ArrayList<>();
+        readMembers(in, pool, "field ", members);
+        readMembers(in, pool, "method ", members);
+        Collections.sort(members);
+        members.forEach(member -> api.append(member).append('\n'));
+        api.append(readAttributes(in, pool));
+        return api.toString();
+    }
+
+    private static void readMembers(DataInputStream in, Object[] pool, String kind, List<String> members) throws IOException {
+        for (int count = in.readUnsignedShort(); count > 0; count--) {
+            int access = in.readUnsignedShort();
+            String name = (String) pool[in.readUnsignedShort()];
+            String descriptor = (String) pool[in.readUnsignedShort()];
+            String attributes = readAttributes(in, pool);
+            if ((access & ACC_PRIVATE) == 0)
+                members.add(kind + access + ' ' + name + ' ' + descriptor + attributes);
+        }
+    }
+
+    private static String readAttributes(DataInputStream in, Object[] pool) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int count = in.readUnsignedShort(); count > 0; count--) {
+            String name = (String) pool[in.readUnsignedShort()];
+            int length = in.readInt();
+            switch (name) {
+                case "Signature":
+                    sb.append(" signature=").append(pool[in.readUnsignedShort()]);
+                    break;
+                case "ConstantValue":
+                    sb.append(" value=").append(pool[in.readUnsignedShort()]);
+                    break;
+                case "Exceptions":
+                    List<String> exceptions = new ArrayList<>();
+                    for (int i = in.readUnsignedShort(); i > 0; i--)
+                        exceptions.add(className(pool, in.readUnsignedShort()));
+                    Collections.sort(exceptions);
+                    sb.append(" throws=").append(exceptions);
+                    break;
+                default:
+                    in.skipBytes(length);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static Object[] readConstantPool(DataInputStream in) throws IOException {
+        int count = in.readUnsignedShort();
+        Object[] pool = new Object[count];
+        for (int i = 1; i < count; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case 1:
+                    pool[i] = in.readUTF();
+                    break;
+                case 3:
+                    pool[i] = in.readInt();
+                    break;
+                case 4:
+                    pool[i] = in.readFloat();
+                    break;
+                case 5:
+                    pool[i++] = in.readLong();
+                    break;
+                case 6:
+                    pool[i++] = in.readDouble();
+                    break;
+                case 7:
+                case 8:
+                case 16:
+                case 19:
+                case 20:
+                    // class, string, method type, module and package reference an utf8 entry
+                    pool[i] = new int[]{in.readUnsignedShort()};
+                    break;
+                case 15:
+                    in.skipBytes(3);
+                    break;
+                case 9:
+                case 10:
+                case 11:
+                case 12:
+                case 17:
+                case 18:
+                    in.skipBytes(4);
+                    break;
+                default:
+                    throw new IOException("Unknown constant pool tag " + tag);
+            }
+        }
+        // resolve indirect entries once all utf8 entries are read
+        for (int i = 1; i < count; i++)
+            if (pool[i] instanceof int[])
+                pool[i] = pool[((int[]) pool[i])[0]];
+        return pool;
+    }
+
+    private static String className(Object[] pool, int index) {
+        return (String) pool[index];
+    }
+}
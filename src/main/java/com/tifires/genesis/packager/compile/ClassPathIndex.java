@@ -0,0 +1,226 @@
+package com.tifires.genesis.packager.compile;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Classes of a classpath (jars and directories) indexed by package, built once and shared by any number of
+ * compilations.
+ * <p>
+ * javac lists the classpath one package at a time; with an index, each listing is a map lookup instead of a
+ * scan of every jar and directory. Only the class names are indexed, the bytecode is read when javac needs
+ * it. The index is a snapshot: classes added to the classpath afterwards are not seen. When a class is found
+ * in several entries, the first entry wins, as on a classpath.
+ */
+public class ClassPathIndex implements AutoCloseable {
+    private final static Logger LOG = LoggerFactory.getLogger(ClassPathIndex.class);
+    private static volatile ClassPathIndex systemIndex;
+
+    private final List<Path> entries;
+    private final Map<String, List<JavaFileObject>> packages = new HashMap<>();
+    private final Map<Path, ZipFile> jars = new LinkedHashMap<>();
+
+    /**
+     * @param entries jars and class directories, in classpath order
+     * @return
+     */
+    public static ClassPathIndex of(Collection<Path> entries) {
+        return new ClassPathIndex(entries);
+    }
+
+    /**
+     * @return index of the classpath of the running JVM, built on first use and never to be closed
+     */
+    public static ClassPathIndex ofSystemClassPath() {
+        if (systemIndex == null) {
+            synchronized (ClassPathIndex.class) {
+                if (systemIndex == null)
+                    systemIndex = of(Arrays.stream(System.getProperty("java.class.path", "").split(File.pathSeparator))
+                            .filter(entry -> !entry.isEmpty())
+                            .map(Paths::get)
+                            .collect(Collectors.toList()));
+            }
+        }
+        return systemIndex;
+    }
+
+    private ClassPathIndex(Collection<Path> entries) {
+        this.entries = new ArrayList<>(entries);
+        Set<String> indexed = new HashSet<>();
+        for (Path entry : this.entries) {
+            try {
+                if (Files.isDirectory(entry))
+                    indexDirectory(entry, indexed);
+                else if (Files.isRegularFile(entry))
+                    indexJar(entry, indexed);
+            } catch (IOException | UncheckedIOException e) {
+                LOG.error(entry + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private void indexDirectory(Path directory, Set<String> indexed) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.filter(file -> file.getFileName().toString().endsWith(".class") && Files.isRegularFile(file))
+                    .forEach(file -> {
+                        String name = directory.relativize(file).toString().replace(File.separatorChar, '/');
+                        add(binaryName(name), new DirectoryClass(binaryName(name), file), indexed);
+                    });
+        }
+    }
+
+    private void indexJar(Path jar, Set<String> indexed) throws IOException {
+        ZipFile zip = new ZipFile(jar.toFile());
+        jars.put(jar, zip);
+        for (Enumeration<? extends ZipEntry> it = zip.entries(); it.hasMoreElements(); ) {
+            ZipEntry entry = it.nextElement();
+            // multi-release variants and module descriptors are not visible on a plain classpath
+            if (entry.isDirectory() || !entry.getName().endsWith(".class") || entry.getName().startsWith("META-INF/"))
+                continue;
+            add(binaryName(entry.getName()), new JarClass(binaryName(entry.getName()), jar, zip, entry), indexed);
+        }
+    }
+
+    private void add(String binaryName, JavaFileObject file, Set<String> indexed) {
+        if (binaryName.endsWith("module-info") || binaryName.endsWith("package-info") || !indexed.add(binaryName))
+            return;
+        packages.computeIfAbsent(packageOf(binaryName), k -> new ArrayList<>()).add(file);
+    }
+
+    /**
+     * @param packageName
+     * @param recurse     include the sub-packages
+     * @return classes of the given package
+     */
+    public List<JavaFileObject> list(String packageName, boolean recurse) {
+        if (!recurse)
+            return packages.getOrDefault(packageName, Collections.emptyList());
+        List<JavaFileObject> files = new ArrayList<>();
+        packages.forEach((pkg, classes) -> {
+            if (pkg.equals(packageName) || packageName.isEmpty() || pkg.startsWith(packageName + "."))
+                files.addAll(classes);
+        });
+        return files;
+    }
+
+    /**
+     * @return binary name of the given file when it comes from an index, null otherwise
+     */
+    static String binaryNameOf(JavaFileObject file) {
+        return file instanceof IndexedClass ? ((IndexedClass) file).binaryName : null;
+    }
+
+    public List<Path> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * @return number of classes indexed
+     */
+    public int size() {
+        return packages.values().stream().mapToInt(List::size).sum();
+    }
+
+    @Override
+    public void close() {
+        synchronized (jars) {
+            jars.values().forEach(zip -> {
+                try {
+                    zip.close();
+                } catch (IOException e) {
+                    LOG.error(e.getMessage(), e);
+                }
+            });
+            jars.clear();
+        }
+    }
+
+    private static String binaryName(String classFile) {
+        return classFile.substring(0, classFile.length() - ".class".length()).replace('/', '.');
+    }
+
+    static String packageOf(String binaryName) {
+        int dot = binaryName.lastIndexOf('.');
+        return dot < 0 ? "" : binaryName.substring(0, dot);
+    }
+
+    private abstract static class IndexedClass extends SimpleJavaFileObject {
+        private final String binaryName;
+
+        IndexedClass(String binaryName, URI uri) {
+            super(uri, Kind.CLASS);
+            this.binaryName = binaryName;
+        }
+
+        @Override
+        public boolean isNameCompatible(String simpleName, Kind kind) {
+            return kind == Kind.CLASS && binaryName.substring(binaryName.lastIndexOf('.') + 1).equals(simpleName);
+        }
+    }
+
+    private static final class DirectoryClass extends IndexedClass {
+        private final Path file;
+
+        DirectoryClass(String binaryName, Path file) {
+            super(binaryName, file.toUri());
+            this.file = file;
+        }
+
+        @Override
+        public InputStream openInputStream() throws IOException {
+            return Files.newInputStream(file);
+        }
+
+        @Override
+        public long getLastModified() {
+            return file.toFile().lastModified();
+        }
+    }
+
+    private static final class JarClass extends IndexedClass {
+        private final ZipFile zip;
+        private final ZipEntry entry;
+
+        JarClass(String binaryName, Path jar, ZipFile zip, ZipEntry entry) {
+            super(binaryName, uriOf(jar, entry));
+            this.zip = zip;
+            this.entry = entry;
+        }
+
+        // javac wants a hierarchical uri, jar: ones are opaque
+        private static URI uriOf(Path jar, ZipEntry entry) {
+            try {
+                return new URI("file", null, jar.toAbsolutePath().toUri().getPath() + "!/" + entry.getName(), null);
+            } catch (URISyntaxException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+
+        @Override
+        public InputStream openInputStream() throws IOException {
+            return zip.getInputStream(entry);
+        }
+
+        @Override
+        public long getLastModified() {
+            return entry.getTime();
+        }
+    }
+}
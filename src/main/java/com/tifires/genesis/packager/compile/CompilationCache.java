@@ -0,0 +1,273 @@
+package com.tifires.genesis.packager.compile;
+
+import com.tifires.genesis.packager.commons.CompiledCode;
+import com.tifires.genesis.packager.commons.SourceCode;
+import com.tifires.genesis.stuffs.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Content-addressed cache of compilation results.
+ * <p>
+ * Entries are keyed on a hash of the sources, the compiler options, the parent class loader's
+ * classpath (the size and modification time of its jars included) and the running JDK version, and
+ * hold the bytecode of every class javac emitted (inner classes included). Lookups hit an in-memory
+ * LRU tier first, then the optional on-disk tier.
+ */
+public class CompilationCache {
+    private final static Logger LOG = LoggerFactory.getLogger(CompilationCache.class);
+    private static final String EXTENSION = ".classes";
+
+    private int maxEntries = 256;
+    private Path directory;
+    private final Map<String, Map<String, byte[]>> entries = new LinkedHashMap<String, Map<String, byte[]>>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Map<String, byte[]>> eldest) {
+            return size() > maxEntries;
+        }
+    };
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public static CompilationCache newInstance() {
+        return new CompilationCache();
+    }
+
+    private CompilationCache() {
+    }
+
+    /**
+     * Maximum number of compilation results kept in memory, least recently used are evicted first.
+     *
+     * @param maxEntries
+     * @return
+     */
+    public CompilationCache useMaxEntries(int maxEntries) {
+        if (maxEntries < 1)
+            throw new IllegalArgumentException("maxEntries must be positive");
+        synchronized (entries) {
+            this.maxEntries = maxEntries;
+        }
+        return this;
+    }
+
+    /**
+     * Persist compilation results under the given directory so they survive restarts.
+     *
+     * @param directory
+     * @return
+     */
+    public CompilationCache useDirectory(Path directory) {
+        try {
+            this.directory = Files.createDirectories(Objects.requireNonNull(directory));
+        } catch (IOException e) {
+            LOG.error(e.getMessage(), e);
+        }
+        return this;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Compute the cache key of a compilation.
+     *
+     * @param sources     sources to compile
+     * @param options     options handed to javac, may be null
+     * @param flags       any other setting changing the outcome of the compilation
+     * @param classLoader parent class loader the classes are compiled against
+     * @return hex encoded SHA-256 key
+     */
+    public String keyOf(Collection<SourceCode> sources, Iterable<String> options, String flags, ClassLoader classLoader) {
+        return key(sources, options, flags, classLoader);
+    }
+
+    static String key(Collection<SourceCode> sources, Iterable<String> options, String flags, ClassLoader classLoader) {
+        MessageDigest digest = Utils.sha256();
+        List<SourceCode> sorted = new ArrayList<>(sources);
+        sorted.sort(Comparator.comparing(SourceCode::getClassName));
+        for (SourceCode source : sorted) {
+            update(digest, source.getClassName());
+            update(digest, source.getContent());
+        }
+        if (options != null)
+            options.forEach(option -> update(digest, option));
+        update(digest, flags);
+        updateClassPath(digest, classLoader);
+        update(digest, System.getProperty("java.vendor"));
+        update(digest, System.getProperty("java.version"));
+        return Utils.toHex(digest.digest());
+    }
+
+    /**
+     * @param key
+     * @return compiled classes by binary name, or null on a miss
+     */
+    public Map<String, byte[]> get(String key) {
+        Map<String, byte[]> classes;
+        synchronized (entries) {
+            classes = entries.get(key);
+        }
+        if (classes == null && directory != null) {
+            classes = read(key);
+            if (classes != null) {
+                diskHits.incrementAndGet();
+                synchronized (entries) {
+                    entries.put(key, classes);
+                }
+            }
+        }
+        if (classes == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return classes;
+    }
+
+    public void put(String key, Collection<CompiledCode> compiledCodes) {
+        Map<String, byte[]> classes = new TreeMap<>();
+        compiledCodes.forEach(code -> classes.put(code.getClassName(), code.getByteCode()));
+        Map<String, byte[]> value = Collections.unmodifiableMap(classes);
+        synchronized (entries) {
+            entries.put(key, value);
+        }
+        if (directory != null)
+            write(key, value);
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of hits served from the on-disk tier, included in {@link #getHits()}
+     */
+    public long getDiskHits() {
+        return diskHits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private Map<String, byte[]> read(String key) {
+        Path file = directory.resolve(key + EXTENSION);
+        if (!Files.isRegularFile(file))
+            return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            int count = in.readInt();
+            Map<String, byte[]> classes = new TreeMap<>();
+            for (int i = 0; i < count; i++) {
+                String className = in.readUTF();
+                byte[] byteCode = new byte[in.readInt()];
+                in.readFully(byteCode);
+                classes.put(className, byteCode);
+            }
+            return Collections.unmodifiableMap(classes);
+        } catch (IOException e) {
+            LOG.error("Unreadable cache entry " + file, e);
+            return null;
+        }
+    }
+
+    private void write(String key, Map<String, byte[]> classes) {
+        try {
+            Path tmp = Files.createTempFile(directory, key, ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(classes.size());
+                for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(entry.getValue().length);
+                    out.write(entry.getValue());
+                }
+            }
+            Files.move(tmp, directory.resolve(key + EXTENSION), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.error(e.getMessage(), e);
+        }
+    }
+
+    private static void updateClassPath(MessageDigest digest, ClassLoader classLoader) {
+        for (ClassLoader cl = classLoader; cl != null; cl = cl.getParent()) {
+            if (cl instanceof DynamicClassLoader) {
+                // in-memory classes are part of the classpath too, hash their bytecode
+                Map<String, CompiledCode> codes = new TreeMap<>(((DynamicClassLoader) cl).getCompiledCodes());
+                codes.forEach((name, code) -> {
+                    update(digest, name);
+                    digest.update(code.getByteCode());
+                });
+            } else if (cl instanceof URLClassLoader) {
+                for (URL url : ((URLClassLoader) cl).getURLs())
+                    update(digest, "file".equals(url.getProtocol()) ? stampOf(url) : url.toString());
+            } else {
+                update(digest, cl.getClass().getName());
+            }
+        }
+        for (String entry : System.getProperty("java.class.path", "").split(File.pathSeparator))
+            update(digest, stampOf(Paths.get(entry)));
+    }
+
+    private static String stampOf(URL url) {
+        try {
+            return stampOf(Paths.get(url.toURI()));
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            return url.toString();
+        }
+    }
+
+    /**
+     * @return the given classpath entry, with the size and modification time of a jar so that a jar replaced
+     * in place changes the key; classes changed in a directory are not seen
+     */
+    static String stampOf(Path entry) {
+        try {
+            if (Files.isRegularFile(entry))
+                return entry + ":" + Files.size(entry) + ":" + Files.getLastModifiedTime(entry).toMillis();
+        } catch (IOException e) {
+            LOG.debug(e.getMessage(), e);
+        }
+        return entry.toString();
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        if (value == null) {
+            digest.update((byte) 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int length = bytes.length;
+        digest.update(new byte[]{1, (byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length});
+        digest.update(bytes);
+    }
+}
@@ -0,0 +1,90 @@
+package com.tifires.genesis.packager.compile;
+
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Note reporting what a javac run cost, added by the {@link Compiler} to its
+ * {@link Compiler#getDiagnostics() diagnostics} after every run.
+ */
+public final class CompilationCost implements Diagnostic<JavaFileObject> {
+    public static final String CODE = "genesis.compile.cost";
+
+    private final CompilationProfile profile;
+    private final int sources;
+    private final long elapsedNanos;
+
+    CompilationCost(CompilationProfile profile, int sources, long elapsedNanos) {
+        this.profile = profile;
+        this.sources = sources;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public CompilationProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * @return number of sources javac was given
+     */
+    public int getSources() {
+        return sources;
+    }
+
+    public long getElapsed(TimeUnit unit) {
+        return unit.convert(elapsedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public Kind getKind() {
+        return Kind.NOTE;
+    }
+
+    @Override
+    public JavaFileObject getSource() {
+        return null;
+    }
+
+    @Override
+    public long getPosition() {
+        return NOPOS;
+    }
+
+    @Override
+    public long getStartPosition() {
+        return NOPOS;
+    }
+
+    @Override
+    public long getEndPosition() {
+        return NOPOS;
+    }
+
+    @Override
+    public long getLineNumber() {
+        return NOPOS;
+    }
+
+    @Override
+    public long getColumnNumber() {
+        return NOPOS;
+    }
+
+    @Override
+    public String getCode() {
+        return CODE;
+    }
+
+    @Override
+    public String getMessage(Locale locale) {
+        return "javac compiled " + sources + " sources with the " + profile + " profile in "
+                + getElapsed(TimeUnit.MILLISECONDS) + " ms";
+    }
+
+    @Override
+    public String toString() {
+        return getMessage(Locale.ROOT);
+    }
+}
@@ -0,0 +1,37 @@
+package com.tifires.genesis.packager.compile;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Sets of javac options trading compilation cost for debuggability, applied before the options given to
+ * {@link Compiler#useOptions(String...)}.
+ */
+public enum CompilationProfile {
+    /**
+     * javac defaults: annotation processors discovered on the classpath, line and source debug info, default
+     * lint.
+     */
+    DEFAULT(),
+    /**
+     * Cheapest pass, meant for machine-generated sources: no annotation processing, no debug info (stack
+     * traces have no line numbers), no lint, and no class files for the classpath sources javac reads.
+     */
+    FAST("-proc:none", "-g:none", "-Xlint:none", "-implicit:none"),
+    /**
+     * Full debug info, method parameter names and every lint warning. Warnings fail the compilation unless
+     * {@link Compiler#ignoreWarnings()} is set.
+     */
+    DEBUG("-g", "-Xlint:all", "-parameters");
+
+    private final List<String> options;
+
+    CompilationProfile(String... options) {
+        this.options = Collections.unmodifiableList(Arrays.asList(options));
+    }
+
+    public List<String> getOptions() {
+        return options;
+    }
+}
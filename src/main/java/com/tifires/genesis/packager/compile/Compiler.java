@@ -1,22 +1,48 @@
 package com.tifires.genesis.packager.compile;
 
+import com.tifires.genesis.packager.commons.BytecodeStore;
 import com.tifires.genesis.packager.commons.CompiledCode;
 import com.tifires.genesis.packager.commons.SourceCode;
+import com.tifires.genesis.packager.metrics.Instrumentation;
+import com.tifires.genesis.packager.metrics.Metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.tools.*;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.stream.Collectors;
 
 /**
  * Compile Java sources in-memory
  */
 public class Compiler {
+    private final static Logger LOG = LoggerFactory.getLogger(Compiler.class);
     private JavaCompiler javac;
     private DynamicClassLoader classLoader;
     private Iterable<String> options;
+    private List<String> userOptions = Collections.emptyList();
+    private CompilationProfile profile = CompilationProfile.DEFAULT;
     private boolean ignoreWarnings = false;
+    private CompilationCache cache;
+    private CompilerEngine engine;
+    // diagnostics of the last compilation, javac tasks may run concurrently
+    private final List<Diagnostic<? extends JavaFileObject>> diagnostics = Collections.synchronizedList(new ArrayList<>());
+    private ForkJoinPool pool;
+    private int partitionSize = 32;
+    private Instrumentation instrumentation = Instrumentation.NOOP;
+    private BytecodeStore bytecodeStore;
+    private LoaderGenerations generations;
+    private ClassPathIndex classPathIndex;
 
     private Map<String, SourceCode> sourceCodes = new HashMap<>();
+    private Map<String, String> owners = new HashMap<>();
+    private Set<String> changedSources = new TreeSet<>();
+    private Map<String, SourceCode> removedSources = new TreeMap<>();
+    private SourceDependencyGraph graph;
+    private boolean compiled = false;
 
     public static Compiler newInstance() {
         return new Compiler();
@@ -27,11 +53,106 @@ public class Compiler {
         this.classLoader = new DynamicClassLoader(ClassLoader.getSystemClassLoader());
     }
 
+    /**
+     * Compile through the given engine, reusing its compiler and warmed file managers instead of setting
+     * them up for every compilation.
+     *
+     * @param engine
+     * @return
+     */
+    public Compiler useEngine(CompilerEngine engine) {
+        this.engine = Objects.requireNonNull(engine);
+        this.javac = engine.getJavac();
+        return this;
+    }
+
+    public CompilerEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Compile independent groups of sources concurrently on the common fork-join pool.
+     *
+     * @return
+     * @see #useForkJoinPool(ForkJoinPool)
+     */
+    public Compiler parallel() {
+        return useForkJoinPool(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Compile independent groups of sources concurrently on the given pool. Sources are split along their
+     * dependencies into waves of partitions; the partitions of a wave are compiled in parallel against the
+     * classes compiled by the previous waves. When a partition does not compile, the whole set is compiled
+     * again in a single task, so that errors are reported exactly as in sequential mode.
+     *
+     * @param pool
+     * @return
+     */
+    public Compiler useForkJoinPool(ForkJoinPool pool) {
+        this.pool = Objects.requireNonNull(pool);
+        return this;
+    }
+
+    /**
+     * Minimum number of sources worth a javac task of their own in parallel mode, 32 by default.
+     *
+     * @param partitionSize
+     * @return
+     */
+    public Compiler usePartitionSize(int partitionSize) {
+        if (partitionSize < 1)
+            throw new IllegalArgumentException("partitionSize must be positive");
+        this.partitionSize = partitionSize;
+        return this;
+    }
+
     public Compiler useParentClassLoader(ClassLoader parent) {
-        this.classLoader = new DynamicClassLoader(parent);
+        this.classLoader = newClassLoader(parent);
+        return this;
+    }
+
+    /**
+     * Move the bytecode of the classes out of the heap once they are loaded. It stays available from
+     * {@link #getCompiledCodes()}, copied back on demand.
+     *
+     * @param bytecodeStore e.g. {@link BytecodeStore#newInstance()}, shared by every class loader generation
+     * @return
+     */
+    public Compiler useBytecodeStore(BytecodeStore bytecodeStore) {
+        this.bytecodeStore = bytecodeStore;
+        classLoader.useBytecodeStore(bytecodeStore);
         return this;
     }
 
+    /**
+     * Look classpath classes up in the given index instead of scanning the classpath on every compilation.
+     * The index replaces the classpath javac would use, e.g. {@link ClassPathIndex#ofSystemClassPath()}.
+     *
+     * @param classPathIndex
+     * @return
+     */
+    public Compiler useClassPathIndex(ClassPathIndex classPathIndex) {
+        this.classPathIndex = classPathIndex;
+        return this;
+    }
+
+    /**
+     * Publish the class loader of every successful compilation to the given generations, so that each
+     * {@link #recompileChanged()} makes its classes current and lets the previous ones be unloaded.
+     *
+     * @param generations
+     * @return
+     */
+    public Compiler useGenerations(LoaderGenerations generations) {
+        this.generations = generations;
+        return this;
+    }
+
+    private DynamicClassLoader newClassLoader(ClassLoader parent) {
+        return new DynamicClassLoader(parent).useBytecodeStore(bytecodeStore);
+    }
+
     /**
      * @return the class loader used internally by the compiler
      */
@@ -46,10 +167,44 @@ public class Compiler {
      * @return
      */
     public Compiler useOptions(String... options) {
-        this.options = Arrays.asList(options);
+        this.userOptions = Arrays.asList(options);
+        this.options = effectiveOptions();
+        return this;
+    }
+
+    /**
+     * Options javac runs with on top of the ones from {@link #useOptions(String...)}, DEFAULT by default.
+     *
+     * @param profile
+     * @return
+     */
+    public Compiler useProfile(CompilationProfile profile) {
+        this.profile = Objects.requireNonNull(profile);
+        this.options = effectiveOptions();
         return this;
     }
 
+    public CompilationProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * @return options javac runs with, those of the profile first
+     */
+    public List<String> getOptions() {
+        List<String> effective = new ArrayList<>();
+        effectiveOptions().forEach(effective::add);
+        return effective;
+    }
+
+    private Iterable<String> effectiveOptions() {
+        if (profile.getOptions().isEmpty())
+            return userOptions;
+        List<String> effective = new ArrayList<>(profile.getOptions());
+        effective.addAll(userOptions);
+        return effective;
+    }
+
     /**
      * Ignore non-critical compiler output, like unchecked/unsafe operation
      * warnings.
@@ -61,25 +216,298 @@ public class Compiler {
         return this;
     }
 
+    /**
+     * Look up compilation results in the given cache before running javac, and store them there
+     * afterwards.
+     *
+     * @param cache
+     * @return
+     */
+    public Compiler useCache(CompilationCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    public CompilationCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Key of a compilation of the current sources, as in the {@link CompilationCache}: a hash of the sources,
+     * options, profile, classpath and parent class loader, and the JDK version.
+     *
+     * @return hex encoded SHA-256
+     */
+    public String getCompilationKey() {
+        String classPath = classPathIndex == null ? "" : ", classPath=" + classPathIndex.getEntries().stream()
+                .map(CompilationCache::stampOf).collect(Collectors.toList());
+        return CompilationCache.key(sourceCodes.values(), options,
+                "ignoreWarnings=" + ignoreWarnings + ", profile=" + profile + classPath, classLoader.getParent());
+    }
+
+    /**
+     * Report javac time, diagnostics, bytecode size and cache hits to the given instrumentation.
+     *
+     * @param instrumentation
+     * @return
+     */
+    public Compiler useInstrumentation(Instrumentation instrumentation) {
+        this.instrumentation = Objects.requireNonNull(instrumentation);
+        return this;
+    }
+
+    /**
+     * Diagnostics of the last compilation, those javac reported and, for every javac run, a
+     * {@link CompilationCost} note with the profile and the time it took. Empty when the compilation was
+     * found in the cache. Kept when the compilation fails.
+     *
+     * @return
+     */
+    public List<Diagnostic<? extends JavaFileObject>> getDiagnostics() {
+        synchronized (diagnostics) {
+            return new ArrayList<>(diagnostics);
+        }
+    }
+
     /**
      * Compile all sources
      *
      * @return Map containing instances of all compiled classes
      */
     public Map<String, Class<?>> compileAll() {
+        compileSources();
+        return loadClasses(sourceCodes.keySet());
+    }
+
+    /**
+     * Compile all sources without loading any class, e.g. to write the bytecode straight into a jar.
+     *
+     * @return bytecode of every compiled class, nested and anonymous ones included, by binary name
+     */
+    public Map<String, CompiledCode> compileToBytecode() {
+        compileSources();
+        return getCompiledCodes();
+    }
+
+    private void compileSources() {
         if (sourceCodes.size() == 0) {
             throw new CompilationException("No source code to compile");
         }
+        diagnostics.clear();
         Collection<SourceCode> compilationUnits = sourceCodes.values();
-        DiagnosticCollector<JavaFileObject> collector = new DiagnosticCollector<>();
-        ExtendedStandardJavaFileManager fileManager = new ExtendedStandardJavaFileManager(javac.getStandardFileManager(null, null, null), classLoader);
-        JavaCompiler.CompilationTask task = javac.getTask(null, fileManager, collector, options, null, compilationUnits);
-        boolean result = task.call();
-        if (!result || collector.getDiagnostics().size() > 0) {
+        String cacheKey = null;
+        if (cache != null) {
+            cacheKey = getCompilationKey();
+            Map<String, byte[]> cached = cache.get(cacheKey);
+            if (instrumentation.isEnabled())
+                instrumentation.count(cached != null ? Metrics.COMPILE_CACHE_HITS : Metrics.COMPILE_CACHE_MISSES, 1);
+            if (cached != null) {
+                defineCached(cached);
+                markCompiled();
+                return;
+            }
+        }
+
+        List<CompiledCode> compiledCodes = pool != null && compilationUnits.size() > partitionSize
+                ? compileParallel(compilationUnits)
+                : compileSequential(compilationUnits);
+
+        if (cacheKey != null)
+            cache.put(cacheKey, compiledCodes);
+        markCompiled();
+    }
+
+    private void markCompiled() {
+        if (generations != null)
+            generations.publish(classLoader);
+        compiled = true;
+        changedSources.clear();
+        removedSources.clear();
+    }
+
+    /**
+     * Recompile the sources added, updated or removed since the last compilation, along with the sources
+     * depending on them when their API changed. Dependents are found through the source dependency graph,
+     * and only recompiled when the signatures (not the bodies) of what they depend on changed, wave after
+     * wave until no API changes any more.
+     * <p>
+     * The new classes are defined in a fresh class loader generation, returned by {@link #getClassloader()}
+     * afterwards; the bytecode of the untouched classes is carried over without recompiling it. When the
+     * compilation fails, the previous generation stays in place and the changes stay pending.
+     *
+     * @return Map containing instances of the recompiled classes
+     * @see #updateSource(String, String)
+     * @see #removeSource(String)
+     */
+    public Map<String, Class<?>> recompileChanged() {
+        if (!compiled)
+            return compileAll();
+        if (changedSources.isEmpty() && removedSources.isEmpty())
+            return Collections.emptyMap();
+        diagnostics.clear();
+
+        Set<String> pending = new TreeSet<>(changedSources);
+        if (!removedSources.isEmpty()) {
+            Map<String, SourceCode> before = new HashMap<>(sourceCodes);
+            before.putAll(removedSources);
+            SourceDependencyGraph previousGraph = SourceDependencyGraph.of(before.values());
+            removedSources.keySet().forEach(removed -> pending.addAll(previousGraph.getDependents(removed)));
+            pending.removeAll(removedSources.keySet());
+        }
+        graph = SourceDependencyGraph.of(sourceCodes.values(), graph);
+
+        Map<String, List<CompiledCode>> previousCodes = codesBySource(classLoader, owners);
+        Map<String, String> nextOwners = new HashMap<>();
+        DynamicClassLoader next = newClassLoader(classLoader.getParent());
+        previousCodes.forEach((source, codes) -> {
+            if (!pending.contains(source) && sourceCodes.containsKey(source))
+                codes.forEach(code -> {
+                    next.addCode(code);
+                    nextOwners.put(code.getClassName(), source);
+                });
+        });
+
+        Set<String> recompiled = new TreeSet<>();
+        while (!pending.isEmpty()) {
+            List<SourceCode> compilationUnits = new ArrayList<>();
+            pending.forEach(className -> compilationUnits.add(sourceCodes.get(className)));
+            Task task = new Task(compilationUnits, next).call();
+            checkDiagnostics(task.result, task.collector.getDiagnostics());
+            nextOwners.putAll(task.origins);
+            recompiled.addAll(pending);
+
+            Map<String, List<CompiledCode>> nextCodes = codesBySource(next, nextOwners);
+            Set<String> affected = new TreeSet<>();
+            for (String className : pending)
+                if (!Objects.equals(apiHash(previousCodes.get(className)), apiHash(nextCodes.get(className))))
+                    affected.addAll(graph.getDependents(className));
+            affected.removeAll(recompiled);
+            // stale bytecode of the dependents must not be seen while they are recompiled
+            affected.forEach(className -> nextCodes.getOrDefault(className, Collections.emptyList())
+                    .forEach(code -> next.removeCode(code.getClassName())));
+            pending.clear();
+            pending.addAll(affected);
+        }
+
+        classLoader = next;
+        owners = nextOwners;
+        markCompiled();
+        return loadClasses(recompiled);
+    }
+
+    private Map<String, List<CompiledCode>> codesBySource(DynamicClassLoader loader, Map<String, String> owners) {
+        Map<String, List<CompiledCode>> codes = new HashMap<>();
+        new TreeMap<>(loader.getCompiledCodes()).forEach((name, code) ->
+                codes.computeIfAbsent(ownerOf(name, owners), k -> new ArrayList<>()).add(code));
+        return codes;
+    }
+
+    private String ownerOf(String binaryName, Map<String, String> owners) {
+        String owner = owners.get(binaryName);
+        if (owner != null)
+            return owner;
+        // classes restored from the cache, nested classes belong to their outermost source
+        owner = binaryName;
+        while (!sourceCodes.containsKey(owner) && !removedSources.containsKey(owner) && owner.lastIndexOf('$') > 0)
+            owner = owner.substring(0, owner.lastIndexOf('$'));
+        return owner;
+    }
+
+    private static String apiHash(List<CompiledCode> codes) {
+        if (codes == null || codes.isEmpty())
+            return null;
+        List<byte[]> byteCodes = new ArrayList<>();
+        codes.forEach(code -> byteCodes.add(code.getByteCode()));
+        return ClassFileApi.hash(byteCodes);
+    }
+
+    private List<CompiledCode> compileSequential(Collection<SourceCode> compilationUnits) {
+        Task task = new Task(compilationUnits, classLoader).call();
+        checkDiagnostics(task.result, task.collector.getDiagnostics());
+        owners.putAll(task.origins);
+        return task.compiledCodes;
+    }
+
+    private List<CompiledCode> compileParallel(Collection<SourceCode> compilationUnits) {
+        graph = SourceDependencyGraph.of(compilationUnits, graph);
+        List<List<List<SourceCode>>> waves = graph.partition(partitionSize, pool.getParallelism());
+        List<CompiledCode> compiledCodes = new ArrayList<>();
+        List<Diagnostic<? extends JavaFileObject>> diagnostics = new ArrayList<>();
+        for (List<List<SourceCode>> wave : waves) {
+            List<ForkJoinTask<Task>> tasks = new ArrayList<>();
+            for (List<SourceCode> partition : wave)
+                tasks.add(pool.submit(new Task(partition, classLoader)::call));
+            boolean failed = false;
+            for (ForkJoinTask<Task> forkJoinTask : tasks) {
+                Task task = forkJoinTask.join();
+                failed |= !task.result;
+                compiledCodes.addAll(task.compiledCodes);
+                diagnostics.addAll(task.collector.getDiagnostics());
+                owners.putAll(task.origins);
+            }
+            if (failed) {
+                LOG.debug("Partitioned compilation failed, compiling {} sources at once", compilationUnits.size());
+                return compileSequential(compilationUnits);
+            }
+        }
+        checkDiagnostics(true, diagnostics);
+        return compiledCodes;
+    }
+
+    /**
+     * A single javac invocation over a set of sources.
+     */
+    private class Task {
+        private final Collection<SourceCode> compilationUnits;
+        private final DynamicClassLoader loader;
+        private final DiagnosticCollector<JavaFileObject> collector = new DiagnosticCollector<>();
+        private List<CompiledCode> compiledCodes;
+        private Map<String, String> origins;
+        private boolean result;
+
+        private Task(Collection<SourceCode> compilationUnits, DynamicClassLoader loader) {
+            this.compilationUnits = compilationUnits;
+            this.loader = loader;
+        }
+
+        private Task call() {
+            StandardJavaFileManager standardFileManager = engine != null ? engine.borrowFileManager(options) : javac.getStandardFileManager(null, null, null);
+            ExtendedStandardJavaFileManager fileManager = new ExtendedStandardJavaFileManager(standardFileManager, loader, classPathIndex);
+            long start = System.nanoTime();
+            try {
+                JavaCompiler.CompilationTask task = javac.getTask(null, fileManager, collector, options, null, compilationUnits);
+                result = task.call();
+            } finally {
+                if (engine != null)
+                    engine.releaseFileManager(options, standardFileManager);
+            }
+            long nanos = System.nanoTime() - start;
+            compiledCodes = fileManager.getCompiledCode();
+            origins = fileManager.getOrigins();
+            CompilationCost cost = new CompilationCost(profile, compilationUnits.size(), nanos);
+            synchronized (diagnostics) {
+                diagnostics.addAll(collector.getDiagnostics());
+                diagnostics.add(cost);
+            }
+            if (LOG.isDebugEnabled())
+                LOG.debug("{}, {} diagnostics", cost, collector.getDiagnostics().size());
+            if (instrumentation.isEnabled()) {
+                instrumentation.time(Metrics.COMPILE_JAVAC, nanos);
+                instrumentation.time(Metrics.COMPILE_JAVAC_PROFILE + profile.name().toLowerCase(Locale.ROOT), nanos);
+                instrumentation.count(Metrics.COMPILE_SOURCES, compilationUnits.size());
+                instrumentation.count(Metrics.COMPILE_DIAGNOSTICS, collector.getDiagnostics().size());
+                instrumentation.count(Metrics.COMPILE_BYTECODE_BYTES, compiledCodes.stream().mapToLong(CompiledCode::getSize).sum());
+            }
+            return this;
+        }
+    }
+
+    private void checkDiagnostics(boolean result, List<Diagnostic<? extends JavaFileObject>> diagnostics) {
+        if (!result || diagnostics.size() > 0) {
             StringBuilder exceptionMsg = new StringBuilder("Unable to compile the source");
             boolean hasWarnings = false;
             boolean hasErrors = false;
-            for (Diagnostic<? extends JavaFileObject> d : collector.getDiagnostics()) {
+            for (Diagnostic<? extends JavaFileObject> d : diagnostics) {
                 switch (d.getKind()) {
                     case NOTE:
                     case MANDATORY_WARNING:
@@ -100,8 +528,31 @@ public class Compiler {
                 throw new CompilationException(exceptionMsg.toString());
             }
         }
+    }
+
+    private void defineCached(Map<String, byte[]> cached) {
+        cached.forEach((className, byteCode) -> {
+            try {
+                classLoader.addCode(new CompiledCode(className, byteCode));
+            } catch (Exception e) {
+                throw new CompilationException("Unable to restore cached class " + className + ": " + e.getMessage());
+            }
+        });
+    }
+
+    private Map<String, Class<?>> loadClasses(Collection<String> classNames) {
+        if (!instrumentation.isEnabled())
+            return doLoadClasses(classNames);
+        long start = System.nanoTime();
+        try {
+            return doLoadClasses(classNames);
+        } finally {
+            instrumentation.time(Metrics.CLASS_LOADING, System.nanoTime() - start);
+        }
+    }
 
-        return sourceCodes.keySet().stream().collect(Collectors.toMap(classname -> classname, classname -> {
+    private Map<String, Class<?>> doLoadClasses(Collection<String> classNames) {
+        return classNames.stream().collect(Collectors.toMap(classname -> classname, classname -> {
             try {
                 return classLoader.loadClass(classname);
             } catch (ClassNotFoundException e) {
@@ -134,18 +585,100 @@ public class Compiler {
      */
     public Compiler addSource(String className, String sourceCode) throws Exception {
         sourceCodes.put(className, new SourceCode(className, sourceCode));
+        changedSources.add(className);
+        removedSources.remove(className);
+        return this;
+    }
+
+    /**
+     * Replace the source of a class, a no-op when the content did not change.
+     *
+     * @param className
+     * @param sourceCode
+     * @return
+     * @throws Exception
+     * @see #recompileChanged()
+     */
+    public Compiler updateSource(String className, String sourceCode) throws Exception {
+        SourceCode previous = sourceCodes.get(className);
+        if (previous == null || !previous.getContent().equals(sourceCode))
+            addSource(className, sourceCode);
+        return this;
+    }
+
+    /**
+     * Remove the source of a class.
+     *
+     * @param className
+     * @return
+     * @see #recompileChanged()
+     */
+    public Compiler removeSource(String className) {
+        SourceCode removed = sourceCodes.remove(className);
+        if (removed != null) {
+            changedSources.remove(className);
+            removedSources.put(className, removed);
+        }
         return this;
     }
 
+    /**
+     * @return names of the sources added, updated or removed since the last compilation
+     */
+    public Set<String> getChangedSources() {
+        Set<String> changed = new TreeSet<>(changedSources);
+        changed.addAll(removedSources.keySet());
+        return changed;
+    }
+
+    /**
+     * @return bytecode of the top-level class of every source
+     * @deprecated nested and anonymous classes are left out, use {@link #getCompiledUnits()}
+     */
+    @Deprecated
     public Map<SourceCode, CompiledCode> getResources() {
         Map<String, CompiledCode> compiledCodes = classLoader.getCompiledCodes();
-        return compiledCodes.keySet().stream().collect(Collectors.toMap(sourceCodes::get, compiledCodes::get));
+        Map<SourceCode, CompiledCode> resources = new HashMap<>();
+        sourceCodes.forEach((className, sourceCode) -> {
+            CompiledCode compiledCode = compiledCodes.get(className);
+            if (compiledCode != null)
+                resources.put(sourceCode, compiledCode);
+        });
+        return resources;
+    }
+
+    /**
+     * @return bytecode of every class compiled from each source, nested and anonymous ones included
+     */
+    public Map<SourceCode, List<CompiledCode>> getCompiledUnits() {
+        Map<SourceCode, List<CompiledCode>> units = new LinkedHashMap<>();
+        codesBySource(classLoader, owners).forEach((className, codes) -> {
+            SourceCode sourceCode = sourceCodes.get(className);
+            if (sourceCode != null)
+                units.put(sourceCode, codes);
+        });
+        return units;
+    }
+
+    /**
+     * @return bytecode of every compiled class, nested ones included, by binary name
+     */
+    public Map<String, CompiledCode> getCompiledCodes() {
+        return new TreeMap<>(classLoader.getCompiledCodes());
     }
 
     public List<SourceCode> getSources() {
         return new ArrayList<>(sourceCodes.values());
     }
 
+    /**
+     * Load the class of the given bytecode.
+     *
+     * @param resource
+     * @return
+     * @throws ClassNotFoundException
+     * @see #getCompiledCodes() to get the binary names without loading the classes
+     */
     public Class<?> getClassForSrc(CompiledCode resource) throws ClassNotFoundException {
         Objects.requireNonNull(resource);
         return classLoader.loadClass(resource.getClassName());
@@ -0,0 +1,186 @@
+package com.tifires.genesis.packager.compile;
+
+import com.tifires.genesis.packager.commons.SourceCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.tools.*;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+
+/**
+ * Long-lived, thread-safe holder of the system java compiler and of a pool of warmed standard file
+ * managers.
+ * <p>
+ * A standard file manager indexes the platform classes and classpath archives the first time javac asks
+ * for them, which is most of the cost of a small compilation. Borrowing one already used by a previous
+ * compilation skips that work. A file manager is only ever used by one compilation at a time, so any
+ * number of threads can compile through the same engine. Pools are kept per set of file manager options
+ * (e.g. '-classpath'), as javac applies those to the file manager itself.
+ */
+public class CompilerEngine implements AutoCloseable {
+    private final static Logger LOG = LoggerFactory.getLogger(CompilerEngine.class);
+    private static volatile CompilerEngine defaultEngine;
+
+    private final JavaCompiler javac;
+    private final int poolSize;
+    private final Map<List<String>, BlockingDeque<StandardJavaFileManager>> pools = new ConcurrentHashMap<>();
+    private volatile boolean closed = false;
+
+    public static CompilerEngine newInstance() {
+        return newInstance(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param poolSize maximum number of idle file managers kept per set of options
+     * @return
+     */
+    public static CompilerEngine newInstance(int poolSize) {
+        return new CompilerEngine(poolSize);
+    }
+
+    /**
+     * @return engine shared by the whole JVM
+     */
+    public static CompilerEngine getDefault() {
+        if (defaultEngine == null) {
+            synchronized (CompilerEngine.class) {
+                if (defaultEngine == null)
+                    defaultEngine = newInstance();
+            }
+        }
+        return defaultEngine;
+    }
+
+    private CompilerEngine(int poolSize) {
+        if (poolSize < 1)
+            throw new IllegalArgumentException("poolSize must be positive");
+        this.javac = ToolProvider.getSystemJavaCompiler();
+        if (javac == null)
+            throw new CompilationException("No system java compiler available, a JDK is required");
+        this.poolSize = poolSize;
+    }
+
+    public JavaCompiler getJavac() {
+        return javac;
+    }
+
+    /**
+     * Compile a trivial unit through each pooled file manager so that javac's own classes are loaded and
+     * java.lang is indexed before the first real compilation.
+     *
+     * @param options options the warmed file managers will be used with
+     * @return
+     */
+    public CompilerEngine warmUp(String... options) {
+        List<StandardJavaFileManager> warmed = new ArrayList<>();
+        try {
+            SourceCode warmUp = new SourceCode("GenesisWarmUp", "class GenesisWarmUp { String s = java.util.Objects.toString(null); }");
+            for (int i = 0; i < poolSize; i++) {
+                StandardJavaFileManager fileManager = borrowFileManager(Arrays.asList(options));
+                warmed.add(fileManager);
+                DynamicClassLoader loader = new DynamicClassLoader(ClassLoader.getSystemClassLoader());
+                javac.getTask(null, new ExtendedStandardJavaFileManager(fileManager, loader), d -> {
+                }, Arrays.asList(options), null, Collections.singletonList(warmUp)).call();
+            }
+        } catch (Exception e) {
+            LOG.error(e.getMessage(), e);
+        } finally {
+            warmed.forEach(fileManager -> releaseFileManager(Arrays.asList(options), fileManager));
+        }
+        return this;
+    }
+
+    /**
+     * Take a file manager out of the pool, or create one if none is idle. It must be given back with
+     * {@link #releaseFileManager(Iterable, StandardJavaFileManager)} once the compilation is done.
+     *
+     * @param options options of the compilation the file manager will be used for, may be null
+     * @return
+     */
+    public StandardJavaFileManager borrowFileManager(Iterable<String> options) {
+        if (closed)
+            throw new IllegalStateException("Compiler engine is closed");
+        StandardJavaFileManager fileManager = pool(options).pollFirst();
+        return fileManager != null ? fileManager : javac.getStandardFileManager(null, null, null);
+    }
+
+    public void releaseFileManager(Iterable<String> options, StandardJavaFileManager fileManager) {
+        // most recently used first, its caches are the hottest
+        if (closed || !pool(options).offerFirst(fileManager))
+            close(fileManager);
+    }
+
+    /**
+     * @return number of idle file managers over all pools
+     */
+    public int getIdleCount() {
+        return pools.values().stream().mapToInt(Collection::size).sum();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        pools.values().forEach(pool -> {
+            StandardJavaFileManager fileManager;
+            while ((fileManager = pool.pollFirst()) != null)
+                close(fileManager);
+        });
+    }
+
+    private BlockingDeque<StandardJavaFileManager> pool(Iterable<String> options) {
+        return pools.computeIfAbsent(fileManagerOptions(options), key -> new LinkedBlockingDeque<>(poolSize));
+    }
+
+    private static List<String> fileManagerOptions(Iterable<String> options) {
+        if (options == null)
+            return Collections.emptyList();
+        List<String> key = new ArrayList<>();
+        Iterator<String> it = options.iterator();
+        while (it.hasNext()) {
+            String option = it.next();
+            int arguments = fileManagerArguments(option);
+            if (arguments < 0)
+                continue;
+            key.add(option);
+            for (int i = 0; i < arguments && it.hasNext(); i++)
+                key.add(it.next());
+        }
+        return key;
+    }
+
+    private static int fileManagerArguments(String option) {
+        switch (option) {
+            case "-classpath":
+            case "-cp":
+            case "--class-path":
+            case "-sourcepath":
+            case "--source-path":
+            case "-bootclasspath":
+            case "--boot-class-path":
+            case "-extdirs":
+            case "-endorseddirs":
+            case "-encoding":
+            case "--module-path":
+            case "-p":
+            case "--system":
+            case "--release":
+            case "-processorpath":
+            case "--processor-path":
+                return 1;
+            default:
+                return option.startsWith("-Xbootclasspath") ? 0 : -1;
+        }
+    }
+
+    private static void close(StandardJavaFileManager fileManager) {
+        try {
+            fileManager.close();
+        } catch (IOException e) {
+            LOG.error(e.getMessage(), e);
+        }
+    }
+}
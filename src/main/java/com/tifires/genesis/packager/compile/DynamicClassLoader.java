@@ -1,20 +1,85 @@
 package com.tifires.genesis.packager.compile;
 
+import com.tifires.genesis.packager.commons.BytecodeStore;
 import com.tifires.genesis.packager.commons.CompiledCode;
 
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.security.ProtectionDomain;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Class loader defining classes from in-memory bytecode. It is parallel capable:
+ * classes are loaded under a lock per class name rather than a lock on the
+ * loader, and bytecode can be added while other threads are loading classes.
+ * <p>
+ * With a {@link BytecodeStore}, the bytecode of a class is moved out of the heap
+ * once the class is defined; it is still served from there, e.g. for packaging.
+ */
 public class DynamicClassLoader extends ClassLoader {
 
-	private Map<String, CompiledCode> compiledCodes = new HashMap<>();
+	static {
+		registerAsParallelCapable();
+	}
+
+	private Map<String, CompiledCode> compiledCodes = new ConcurrentHashMap<>();
+	// same codes by package, for javac to list them without a scan
+	private Map<String, Map<String, CompiledCode>> packages = new ConcurrentHashMap<>();
+	private volatile BytecodeStore bytecodeStore;
+	private final AtomicInteger definedClasses = new AtomicInteger();
+	private final AtomicLong definedBytes = new AtomicLong();
 
 	public DynamicClassLoader(ClassLoader parent) {
 		super(parent);
 	}
 
+	/**
+	 * Move the bytecode of every class defined from now on to the given store.
+	 *
+	 * @param bytecodeStore null to keep the bytecode on the heap
+	 * @return
+	 */
+	public DynamicClassLoader useBytecodeStore(BytecodeStore bytecodeStore) {
+		this.bytecodeStore = bytecodeStore;
+		return this;
+	}
+
+	public BytecodeStore getBytecodeStore() {
+		return bytecodeStore;
+	}
+
 	public void addCode(CompiledCode cc) {
 		compiledCodes.put(cc.getName(), cc);
+		packages.computeIfAbsent(ClassPathIndex.packageOf(cc.getName()),
+				k -> new ConcurrentHashMap<>()).put(cc.getName(), cc);
+	}
+
+	/**
+	 * Forget the bytecode of a class, which can no longer be loaded unless
+	 * it was already.
+	 *
+	 * @param name
+	 */
+	public void removeCode(String name) {
+		if (compiledCodes.remove(name) != null) {
+			Map<String, CompiledCode> codes = packages.get(ClassPathIndex.packageOf(name));
+			if (codes != null)
+				codes.remove(name);
+		}
+	}
+
+	/**
+	 * @param packageName
+	 * @return bytecode held by this loader for the given package, not its
+	 *         sub-packages
+	 */
+	public Collection<CompiledCode> getCompiledCodes(String packageName) {
+		Map<String, CompiledCode> codes = packages.get(packageName);
+		return codes == null ? Collections.<CompiledCode> emptyList() : codes.values();
 	}
 
 	@Override
@@ -23,11 +88,48 @@ public class DynamicClassLoader extends ClassLoader {
 		if (cc == null) {
 			return super.findClass(name);
 		}
-		byte[] byteCode = cc.getByteCode();
-		return defineClass(name, byteCode, 0, byteCode.length);
+		// loadClass already holds this lock, findClass may be called directly though
+		synchronized (getClassLoadingLock(name)) {
+			Class<?> loaded = findLoadedClass(name);
+			if (loaded != null) {
+				return loaded;
+			}
+			Class<?> defined = defineClass(name, cc);
+			definedClasses.incrementAndGet();
+			definedBytes.addAndGet(cc.getSize());
+			BytecodeStore store = bytecodeStore;
+			if (store != null) {
+				cc.moveTo(store);
+			}
+			return defined;
+		}
+	}
+
+	private Class<?> defineClass(String name, CompiledCode cc) {
+		if (!cc.isStored()) {
+			byte[] byteCode = cc.getByteCode();
+			return defineClass(name, byteCode, 0, byteCode.length);
+		}
+		// read straight from the store, without a heap copy
+		ByteBuffer byteCode = cc.getByteBuffer();
+		return defineClass(name, byteCode, (ProtectionDomain) null);
+	}
+
+	/**
+	 * @return number of classes defined by this loader
+	 */
+	public int getDefinedClasses() {
+		return definedClasses.get();
+	}
+
+	/**
+	 * @return bytecode size of the classes defined by this loader
+	 */
+	public long getDefinedBytes() {
+		return definedBytes.get();
 	}
 
 	public Map<String, CompiledCode> getCompiledCodes() {
-		return compiledCodes;
+		return Collections.unmodifiableMap(compiledCodes);
 	}
 }
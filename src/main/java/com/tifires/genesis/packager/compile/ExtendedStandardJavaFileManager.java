@@ -1,15 +1,20 @@
 package com.tifires.genesis.packager.compile;
 
 import com.tifires.genesis.packager.commons.CompiledCode;
+import com.tifires.genesis.packager.commons.SourceCode;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.tools.FileObject;
 import javax.tools.ForwardingJavaFileManager;
 import javax.tools.JavaFileManager;
 import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
 
 /**
  * Created by trung on 5/3/15. Edited by turpid-monkey on 9/25/15, completed
@@ -19,7 +24,9 @@ public class ExtendedStandardJavaFileManager extends
 		ForwardingJavaFileManager<JavaFileManager> {
 
 	private List<CompiledCode> compiledCode = new ArrayList<CompiledCode>();
+	private Map<String, String> origins = new HashMap<String, String>();
 	private DynamicClassLoader cl;
+	private ClassPathIndex index;
 
 	/**
 	 * Creates a new instance of ForwardingJavaFileManager.
@@ -30,8 +37,24 @@ public class ExtendedStandardJavaFileManager extends
 	 */
 	protected ExtendedStandardJavaFileManager(JavaFileManager fileManager,
 			DynamicClassLoader cl) {
+		this(fileManager, cl, null);
+	}
+
+	/**
+	 * Creates a new instance of ForwardingJavaFileManager listing the
+	 * classpath from the given index rather than from the file system.
+	 *
+	 * @param fileManager
+	 *            delegate to this file manager
+	 * @param cl
+	 * @param index
+	 *            may be null
+	 */
+	protected ExtendedStandardJavaFileManager(JavaFileManager fileManager,
+			DynamicClassLoader cl, ClassPathIndex index) {
 		super(fileManager);
 		this.cl = cl;
+		this.index = index;
 	}
 
 	@Override
@@ -42,6 +65,8 @@ public class ExtendedStandardJavaFileManager extends
 		try {
 			CompiledCode innerClass = new CompiledCode(className);
 			compiledCode.add(innerClass);
+			if (sibling instanceof SourceCode)
+				origins.put(className, ((SourceCode) sibling).getClassName());
 			cl.addCode(innerClass);
 			return innerClass;
 		} catch (Exception e) {
@@ -51,6 +76,94 @@ public class ExtendedStandardJavaFileManager extends
 		}
 	}
 
+	/**
+	 * Lists the classes held in memory by the dynamic class loaders along with the
+	 * ones of the classpath, so that sources can be compiled against classes
+	 * compiled earlier without writing them to disk. With an index, the classpath
+	 * is not scanned, and sources on the classpath are not looked up.
+	 */
+	@Override
+	public Iterable<JavaFileObject> list(JavaFileManager.Location location,
+			String packageName, Set<JavaFileObject.Kind> kinds, boolean recurse)
+			throws IOException {
+		if (location != StandardLocation.CLASS_PATH
+				|| !kinds.contains(JavaFileObject.Kind.CLASS))
+			return super.list(location, packageName, kinds, recurse);
+
+		List<JavaFileObject> files = new ArrayList<JavaFileObject>();
+		for (ClassLoader loader = cl; loader != null; loader = loader.getParent()) {
+			if (!(loader instanceof DynamicClassLoader))
+				continue;
+			DynamicClassLoader dynamic = (DynamicClassLoader) loader;
+			Iterable<CompiledCode> codes = recurse ? dynamic.getCompiledCodes()
+					.values() : dynamic.getCompiledCodes(packageName);
+			for (CompiledCode code : codes) {
+				if (code.isComplete()
+						&& inPackage(code.getClassName(), packageName, recurse))
+					files.add(code);
+			}
+		}
+		if (index != null) {
+			files.addAll(index.list(packageName, recurse));
+			return files;
+		}
+		Iterable<JavaFileObject> listed = super.list(location, packageName,
+				kinds, recurse);
+		if (files.isEmpty())
+			return listed;
+		for (JavaFileObject file : listed)
+			files.add(file);
+		return files;
+	}
+
+	@Override
+	public String inferBinaryName(JavaFileManager.Location location,
+			JavaFileObject file) {
+		if (file instanceof CompiledCode)
+			return ((CompiledCode) file).getClassName();
+		String indexed = ClassPathIndex.binaryNameOf(file);
+		if (indexed != null)
+			return indexed;
+		return super.inferBinaryName(location, file);
+	}
+
+	@Override
+	public boolean isSameFile(FileObject a, FileObject b) {
+		if (a instanceof CompiledCode || b instanceof CompiledCode)
+			return a == b;
+		if (isIndexed(a) || isIndexed(b))
+			return a.toUri().equals(b.toUri());
+		return super.isSameFile(a, b);
+	}
+
+	private static boolean isIndexed(FileObject file) {
+		return file instanceof JavaFileObject
+				&& ClassPathIndex.binaryNameOf((JavaFileObject) file) != null;
+	}
+
+	private static boolean inPackage(String className, String packageName,
+			boolean recurse) {
+		int dot = className.lastIndexOf('.');
+		String pkg = dot < 0 ? "" : className.substring(0, dot);
+		return pkg.equals(packageName) || recurse
+				&& (packageName.isEmpty() || pkg.startsWith(packageName + "."));
+	}
+
+	/**
+	 * @return classes written by javac through this file manager
+	 */
+	public List<CompiledCode> getCompiledCode() {
+		return compiledCode;
+	}
+
+	/**
+	 * @return name of the source each class was compiled from, by binary class
+	 *         name
+	 */
+	public Map<String, String> getOrigins() {
+		return origins;
+	}
+
 	@Override
 	public ClassLoader getClassLoader(JavaFileManager.Location location) {
 		return cl;
@@ -0,0 +1,235 @@
+package com.tifires.genesis.packager.compile;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.*;
+
+/**
+ * Successive class loader generations of a reloadable application, e.g. one per recompilation.
+ * <p>
+ * Publishing a generation makes it the current one at once: every lease acquired afterwards gets it, while
+ * leases on older generations keep theirs. An old generation is retired when a newer one is published and
+ * released once its last lease is closed: the generations drop their reference to its class loader, so that
+ * the loader and its classes can be unloaded as soon as nothing else (a compiler, an instance of one of its
+ * classes, a thread local...) holds on to them. Generations are tracked weakly until then, so that leaks
+ * show up in {@link #getGenerations()}.
+ */
+public class LoaderGenerations {
+    private final ReferenceQueue<ClassLoader> collected = new ReferenceQueue<>();
+    // generations whose class loader was not collected yet, oldest first
+    private final Map<Reference<ClassLoader>, Generation> tracked = new LinkedHashMap<>();
+    private volatile Generation current;
+    private long published = 0;
+
+    public static LoaderGenerations newInstance() {
+        return new LoaderGenerations();
+    }
+
+    private LoaderGenerations() {
+    }
+
+    /**
+     * Make the given class loader the current generation, retiring the previous one.
+     *
+     * @param classLoader
+     * @return the new generation
+     */
+    public synchronized Generation publish(ClassLoader classLoader) {
+        Objects.requireNonNull(classLoader);
+        expunge();
+        Generation previous = current;
+        if (previous != null && previous.classLoader == classLoader)
+            return previous;
+        Generation generation = new Generation(++published, classLoader, collected);
+        tracked.put(generation.reference, generation);
+        current = generation;
+        if (previous != null) {
+            previous.retired = true;
+            if (previous.leases == 0)
+                previous.release();
+        }
+        return generation;
+    }
+
+    /**
+     * @return the current generation, null before the first publication
+     */
+    public Generation getCurrent() {
+        return current;
+    }
+
+    /**
+     * Lease the current generation, keeping it alive until the lease is closed.
+     *
+     * @return
+     * @throws IllegalStateException when nothing was published yet
+     */
+    public synchronized Lease acquire() {
+        Generation generation = current;
+        if (generation == null)
+            throw new IllegalStateException("No class loader generation published");
+        generation.leases++;
+        return new Lease(generation);
+    }
+
+    /**
+     * @return generations whose class loader was not garbage-collected yet, oldest first
+     */
+    public synchronized List<Generation> getGenerations() {
+        expunge();
+        return new ArrayList<>(tracked.values());
+    }
+
+    /**
+     * @return estimated metaspace taken by the classes of the live generations
+     * @see Generation#getFootprint()
+     */
+    public long getFootprint() {
+        return getGenerations().stream().mapToLong(Generation::getFootprint).sum();
+    }
+
+    /**
+     * @return metaspace used by the whole JVM, -1 when the JVM does not report it
+     */
+    public static long getMetaspaceUsed() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            if ("Metaspace".equals(pool.getName()))
+                return pool.getUsage().getUsed();
+        return -1;
+    }
+
+    private synchronized void release(Generation generation) {
+        generation.leases--;
+        if (generation.leases == 0 && generation.retired)
+            generation.release();
+    }
+
+    private void expunge() {
+        for (Reference<? extends ClassLoader> reference = collected.poll(); reference != null; reference = collected.poll())
+            tracked.remove(reference);
+    }
+
+    /**
+     * A class loader published at some point.
+     */
+    public static final class Generation {
+        private final long number;
+        private final WeakReference<ClassLoader> reference;
+        // guarded by the generations
+        private int leases = 0;
+        private volatile ClassLoader classLoader;
+        private volatile boolean retired = false;
+        private volatile boolean released = false;
+
+        private Generation(long number, ClassLoader classLoader, ReferenceQueue<ClassLoader> collected) {
+            this.number = number;
+            this.classLoader = classLoader;
+            this.reference = new WeakReference<>(classLoader, collected);
+        }
+
+        /**
+         * @return 1 for the first generation published, then 2, 3...
+         */
+        public long getNumber() {
+            return number;
+        }
+
+        /**
+         * @return the class loader, null once the generation is released
+         */
+        public ClassLoader getClassLoader() {
+            return classLoader;
+        }
+
+        /**
+         * @return true once a newer generation is published
+         */
+        public boolean isRetired() {
+            return retired;
+        }
+
+        /**
+         * @return true once retired and no longer leased, the class loader may then be collected
+         */
+        public boolean isReleased() {
+            return released;
+        }
+
+        /**
+         * @return true once the class loader was garbage-collected
+         */
+        public boolean isCollected() {
+            return reference.get() == null;
+        }
+
+        /**
+         * Estimated metaspace taken by the classes of this generation: the size of their class files, which
+         * metaspace usage is of the same order as. Only classes defined by a {@link DynamicClassLoader} are
+         * accounted for.
+         *
+         * @return 0 once collected
+         */
+        public long getFootprint() {
+            ClassLoader loader = reference.get();
+            return loader instanceof DynamicClassLoader ? ((DynamicClassLoader) loader).getDefinedBytes() : 0;
+        }
+
+        /**
+         * @return number of classes defined so far, 0 once collected
+         */
+        public int getClassCount() {
+            ClassLoader loader = reference.get();
+            return loader instanceof DynamicClassLoader ? ((DynamicClassLoader) loader).getDefinedClasses() : 0;
+        }
+
+        private void release() {
+            released = true;
+            classLoader = null;
+        }
+
+        @Override
+        public String toString() {
+            return "Generation{number=" + number + ", retired=" + retired + ", released=" + released
+                    + ", collected=" + isCollected() + ", footprint=" + getFootprint() + "}";
+        }
+    }
+
+    /**
+     * A generation in use, given back on {@link #close()}.
+     */
+    public final class Lease implements AutoCloseable {
+        private final Generation generation;
+        private final ClassLoader classLoader;
+        private boolean closed = false;
+
+        private Lease(Generation generation) {
+            this.generation = generation;
+            this.classLoader = generation.classLoader;
+        }
+
+        public Generation getGeneration() {
+            return generation;
+        }
+
+        public ClassLoader getClassLoader() {
+            return classLoader;
+        }
+
+        public Class<?> loadClass(String className) throws ClassNotFoundException {
+            return classLoader.loadClass(className);
+        }
+
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (closed)
+                    return;
+                closed = true;
+            }
+            release(generation);
+        }
+    }
+}
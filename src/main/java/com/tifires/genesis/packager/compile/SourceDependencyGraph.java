@@ -0,0 +1,276 @@
+package com.tifires.genesis.packager.compile;
+
+import com.tifires.genesis.packager.commons.SourceCode;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Dependency graph between sources, built from their package, imports and the type names they mention.
+ * <p>
+ * The analysis is lexical and errs on the side of extra edges: an identifier is taken as a reference to
+ * any source whose simple name it matches and which is visible from the referencing source (same package,
+ * single-type import or on-demand import). Extra edges only cost parallelism; a missing edge shows up as a
+ * compilation error, which callers handle by compiling the whole set at once.
+ */
+class SourceDependencyGraph {
+    private static final Pattern PACKAGE = Pattern.compile("\\bpackage\\s+([\\w$.]+)\\s*;");
+    private static final Pattern IMPORT = Pattern.compile("\\bimport\\s+(static\\s+)?([\\w$.]+?)(\\s*\\.\\s*\\*)?\\s*;");
+    private static final Pattern QUALIFIED_NAME = Pattern.compile("[\\p{javaJavaIdentifierStart}][\\p{javaJavaIdentifierPart}]*(?:\\s*\\.\\s*[\\p{javaJavaIdentifierStart}][\\p{javaJavaIdentifierPart}]*)*");
+
+    private final List<String> classNames;
+    private final Map<String, SourceCode> sources;
+    private final Map<String, Set<String>> dependencies;
+    private final Map<String, Set<String>> dependents;
+
+    static SourceDependencyGraph of(Collection<SourceCode> sourceCodes) {
+        return new SourceDependencyGraph(sourceCodes, null);
+    }
+
+    /**
+     * Build the graph of the given sources, reusing the edges of the previous graph for the sources left
+     * untouched as long as no source was added or removed.
+     *
+     * @param sourceCodes
+     * @param previous    may be null
+     * @return
+     */
+    static SourceDependencyGraph of(Collection<SourceCode> sourceCodes, SourceDependencyGraph previous) {
+        return new SourceDependencyGraph(sourceCodes, previous);
+    }
+
+    private SourceDependencyGraph(Collection<SourceCode> sourceCodes, SourceDependencyGraph previous) {
+        sources = new TreeMap<>();
+        sourceCodes.forEach(source -> sources.put(source.getClassName(), source));
+        classNames = new ArrayList<>(sources.keySet());
+
+        Map<String, List<String>> bySimpleName = new HashMap<>();
+        classNames.forEach(className -> bySimpleName.computeIfAbsent(simpleName(className), k -> new ArrayList<>()).add(className));
+
+        boolean reusable = previous != null && previous.sources.keySet().equals(sources.keySet());
+        dependencies = new HashMap<>();
+        for (String className : classNames) {
+            SourceCode source = sources.get(className);
+            if (reusable && previous.sources.get(className) == source)
+                dependencies.put(className, previous.dependencies.get(className));
+            else
+                dependencies.put(className, referencedSources(className, source.getContent(), bySimpleName));
+        }
+
+        dependents = new HashMap<>();
+        dependencies.forEach((className, deps) -> deps.forEach(dependency ->
+                dependents.computeIfAbsent(dependency, k -> new TreeSet<>()).add(className)));
+    }
+
+    /**
+     * @param className
+     * @return sources the given source refers to
+     */
+    Set<String> getDependencies(String className) {
+        return dependencies.getOrDefault(className, Collections.emptySet());
+    }
+
+    /**
+     * @param className
+     * @return sources referring to the given source
+     */
+    Set<String> getDependents(String className) {
+        return dependents.getOrDefault(className, Collections.emptySet());
+    }
+
+    /**
+     * Split the sources into waves of independent partitions. Every partition only depends on partitions
+     * of earlier waves, so the partitions of a wave can be compiled concurrently once the previous waves are
+     * compiled. Sources forming a dependency cycle always end up in the same partition.
+     *
+     * @param partitionSize minimum number of sources worth a javac task of their own
+     * @param parallelism   maximum number of partitions per wave
+     * @return waves of partitions, in compilation order
+     */
+    List<List<List<SourceCode>>> partition(int partitionSize, int parallelism) {
+        List<List<String>> components = stronglyConnectedComponents();
+        Map<String, Integer> componentOf = new HashMap<>();
+        for (int i = 0; i < components.size(); i++)
+            for (String className : components.get(i))
+                componentOf.put(className, i);
+
+        // components come out dependencies first, so their level can be computed in a single pass
+        int[] level = new int[components.size()];
+        SortedMap<Integer, List<List<String>>> waves = new TreeMap<>();
+        for (int i = 0; i < components.size(); i++) {
+            for (String className : components.get(i))
+                for (String dependency : dependencies.get(className)) {
+                    int other = componentOf.get(dependency);
+                    if (other != i)
+                        level[i] = Math.max(level[i], level[other] + 1);
+                }
+            waves.computeIfAbsent(level[i], k -> new ArrayList<>()).add(components.get(i));
+        }
+
+        List<List<List<SourceCode>>> result = new ArrayList<>();
+        for (List<List<String>> wave : waves.values())
+            result.add(pack(wave, partitionSize, parallelism));
+        return result;
+    }
+
+    private List<List<SourceCode>> pack(List<List<String>> wave, int partitionSize, int parallelism) {
+        int size = wave.stream().mapToInt(List::size).sum();
+        int partitions = Math.max(1, Math.min(parallelism, size / Math.max(1, partitionSize)));
+        List<List<String>> ordered = new ArrayList<>(wave);
+        ordered.sort(Comparator.<List<String>>comparingInt(List::size).reversed().thenComparing(component -> component.get(0)));
+
+        // largest components first, each one into the currently smallest partition
+        List<List<SourceCode>> result = new ArrayList<>();
+        for (int i = 0; i < partitions; i++)
+            result.add(new ArrayList<>());
+        for (List<String> component : ordered) {
+            List<SourceCode> smallest = result.get(0);
+            for (List<SourceCode> partition : result)
+                if (partition.size() < smallest.size())
+                    smallest = partition;
+            for (String className : component)
+                smallest.add(sources.get(className));
+        }
+        result.removeIf(List::isEmpty);
+        return result;
+    }
+
+    /**
+     * Iterative Tarjan, components are returned in reverse topological order: a component comes after every
+     * component it depends on.
+     */
+    private List<List<String>> stronglyConnectedComponents() {
+        Map<String, Integer> index = new HashMap<>();
+        Map<String, Integer> lowLink = new HashMap<>();
+        Deque<String> stack = new ArrayDeque<>();
+        Set<String> onStack = new HashSet<>();
+        List<List<String>> components = new ArrayList<>();
+
+        for (String root : classNames) {
+            if (index.containsKey(root))
+                continue;
+            Deque<Map.Entry<String, Iterator<String>>> work = new ArrayDeque<>();
+            visit(root, index, lowLink, stack, onStack, work);
+            while (!work.isEmpty()) {
+                Map.Entry<String, Iterator<String>> frame = work.peek();
+                String node = frame.getKey();
+                Iterator<String> edges = frame.getValue();
+                if (edges.hasNext()) {
+                    String next = edges.next();
+                    if (!index.containsKey(next))
+                        visit(next, index, lowLink, stack, onStack, work);
+                    else if (onStack.contains(next))
+                        lowLink.put(node, Math.min(lowLink.get(node), index.get(next)));
+                    continue;
+                }
+                work.pop();
+                if (!work.isEmpty()) {
+                    String parent = work.peek().getKey();
+                    lowLink.put(parent, Math.min(lowLink.get(parent), lowLink.get(node)));
+                }
+                if (lowLink.get(node).equals(index.get(node))) {
+                    List<String> component = new ArrayList<>();
+                    String member;
+                    do {
+                        member = stack.pop();
+                        onStack.remove(member);
+                        component.add(member);
+                    } while (!member.equals(node));
+                    Collections.sort(component);
+                    components.add(component);
+                }
+            }
+        }
+        return components;
+    }
+
+    private void visit(String node, Map<String, Integer> index, Map<String, Integer> lowLink, Deque<String> stack,
+                       Set<String> onStack, Deque<Map.Entry<String, Iterator<String>>> work) {
+        index.put(node, index.size());
+        lowLink.put(node, index.get(node));
+        stack.push(node);
+        onStack.add(node);
+        work.push(new AbstractMap.SimpleEntry<>(node, dependencies.get(node).iterator()));
+    }
+
+    private Set<String> referencedSources(String className, String content, Map<String, List<String>> bySimpleName) {
+        String code = stripCommentsAndLiterals(content);
+        String pkg = "";
+        Matcher packageMatcher = PACKAGE.matcher(code);
+        if (packageMatcher.find())
+            pkg = packageMatcher.group(1);
+
+        Set<String> singleImports = new HashSet<>();
+        Set<String> onDemandImports = new HashSet<>();
+        Matcher importMatcher = IMPORT.matcher(code);
+        while (importMatcher.find()) {
+            if (importMatcher.group(3) != null)
+                onDemandImports.add(importMatcher.group(2));
+            else
+                singleImports.add(importMatcher.group(2));
+        }
+
+        Set<String> referenced = new TreeSet<>();
+        Matcher names = QUALIFIED_NAME.matcher(code);
+        while (names.find()) {
+            String name = names.group().replaceAll("\\s", "");
+            // fully qualified references, possibly to a nested type or a static member
+            for (String prefix = name; ; prefix = prefix.substring(0, prefix.lastIndexOf('.'))) {
+                if (sources.containsKey(prefix))
+                    referenced.add(prefix);
+                if (prefix.indexOf('.') < 0)
+                    break;
+            }
+            int dot = name.indexOf('.');
+            String first = dot < 0 ? name : name.substring(0, dot);
+            for (String candidate : bySimpleName.getOrDefault(first, Collections.emptyList())) {
+                String candidatePackage = packageName(candidate);
+                if (candidatePackage.equals(pkg) || singleImports.contains(candidate) || onDemandImports.contains(candidatePackage))
+                    referenced.add(candidate);
+            }
+        }
+        referenced.remove(className);
+        return referenced;
+    }
+
+    static String packageName(String className) {
+        int dot = className.lastIndexOf('.');
+        return dot < 0 ? "" : className.substring(0, dot);
+    }
+
+    static String simpleName(String className) {
+        return className.substring(className.lastIndexOf('.') + 1);
+    }
+
+    private static String stripCommentsAndLiterals(String content) {
+        StringBuilder sb = new StringBuilder(content.length());
+        int i = 0;
+        int length = content.length();
+        while (i < length) {
+            char c = content.charAt(i);
+            char next = i + 1 < length ? content.charAt(i + 1) : 0;
+            if (c == '/' && next == '/') {
+                while (i < length && content.charAt(i) != '\n')
+                    i++;
+            } else if (c == '/' && next == '*') {
+                int end = content.indexOf("*/", i + 2);
+                i = end < 0 ? length : end + 2;
+                sb.append(' ');
+            } else if (c == '"' || c == '\'') {
+                i++;
+                while (i < length && content.charAt(i) != c) {
+                    if (content.charAt(i) == '\\')
+                        i++;
+                    i++;
+                }
+                i++;
+                sb.append(' ');
+            } else {
+                sb.append(c);
+                i++;
+            }
+        }
+        return sb.toString();
+    }
+}
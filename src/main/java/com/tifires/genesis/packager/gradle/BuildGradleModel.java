@@ -0,0 +1,188 @@
+package com.tifires.genesis.packager.gradle;
+
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Content of the generated build.gradle: plugins, repositories, dependencies, java version and any extra
+ * top-level block. Lines are given as they appear in the script, e.g. {@code plugin("id 'java'")} or
+ * {@code dependency("implementation", "io.ebean:ebean:12.1.8")}.
+ * <p>
+ * In offline mode the script only resolves from the local repositories and gradle runs with '--offline'.
+ */
+public class BuildGradleModel {
+    private String group = "com.tifires";
+    private String javaVersion = "8";
+    private final List<String> plugins = new ArrayList<>();
+    private final List<String> repositories = new ArrayList<>();
+    private final List<String> ext = new ArrayList<>();
+    private final List<String> dependencies = new ArrayList<>();
+    private final List<String> blocks = new ArrayList<>();
+    private boolean offline = false;
+    private Path localRepository;
+
+    /**
+     * @return lean model, a plain java project resolving from maven central
+     */
+    public static BuildGradleModel newInstance() {
+        return new BuildGradleModel()
+                .plugin("id 'java'")
+                .repository("mavenCentral()");
+    }
+
+    /**
+     * @return model of the historical Vaadin / Ebean / Spring project
+     */
+    public static BuildGradleModel defaults() {
+        return new BuildGradleModel()
+                .plugin("id 'io.spring.dependency-management' version '1.0.8.RELEASE'")
+                .plugin("id \"io.ebean\" version \"12.1.8\"")
+                .plugin("id 'java'")
+                .plugin("id 'idea'")
+                .plugin("id 'maven-publish'")
+                .repository("mavenLocal()")
+                .repository("mavenCentral()")
+                .repository("jcenter()")
+                .ext("set('vaadinVersion', \"14.1.5\")")
+                .dependency("compile", "com.vaadin:vaadin-spring-boot-starter")
+                .dependency("compile", "com.tifires.genesis:core:0.3")
+                .dependency("compile", "io.ebean:ebean:12.1.8")
+                .block("ebean {\n    debugLevel = 1\n}")
+                .block("dependencyManagement {\n    imports {\n        mavenBom \"com.vaadin:vaadin-bom:${vaadinVersion}\"\n    }\n}");
+    }
+
+    public BuildGradleModel useGroup(String group) {
+        this.group = Objects.requireNonNull(group);
+        return this;
+    }
+
+    /**
+     * @param javaVersion source compatibility, e.g. '8' or '11'
+     * @return
+     */
+    public BuildGradleModel useJavaVersion(String javaVersion) {
+        this.javaVersion = Objects.requireNonNull(javaVersion);
+        return this;
+    }
+
+    public BuildGradleModel plugin(String plugin) {
+        plugins.add(Objects.requireNonNull(plugin));
+        return this;
+    }
+
+    public BuildGradleModel repository(String repository) {
+        repositories.add(Objects.requireNonNull(repository));
+        return this;
+    }
+
+    public BuildGradleModel ext(String property) {
+        ext.add(Objects.requireNonNull(property));
+        return this;
+    }
+
+    /**
+     * @param configuration e.g. 'implementation'
+     * @param notation      'group:name:version'
+     * @return
+     */
+    public BuildGradleModel dependency(String configuration, String notation) {
+        dependencies.add(configuration + " '" + notation + "'");
+        return this;
+    }
+
+    /**
+     * @param block top-level block, written after the dependencies
+     * @return
+     */
+    public BuildGradleModel block(String block) {
+        blocks.add(Objects.requireNonNull(block));
+        return this;
+    }
+
+    /**
+     * Resolve from the local repositories only: maven local and, if given, the maven repository at
+     * {@code localRepository}.
+     *
+     * @param offline
+     * @param localRepository may be null
+     * @return
+     */
+    public BuildGradleModel useOffline(boolean offline, Path localRepository) {
+        this.offline = offline;
+        this.localRepository = localRepository;
+        return this;
+    }
+
+    public boolean isOffline() {
+        return offline;
+    }
+
+    public String getGroup() {
+        return group;
+    }
+
+    public String getJavaVersion() {
+        return javaVersion;
+    }
+
+    public List<String> getPlugins() {
+        return Collections.unmodifiableList(plugins);
+    }
+
+    /**
+     * @return repositories the script resolves from, the local ones only in offline mode
+     */
+    public List<String> getRepositories() {
+        if (!offline)
+            return Collections.unmodifiableList(repositories);
+        List<String> local = new ArrayList<>();
+        local.add("mavenLocal()");
+        if (localRepository != null)
+            local.add("maven { url '" + localRepository.toUri() + "' }");
+        return local;
+    }
+
+    public List<String> getExt() {
+        return Collections.unmodifiableList(ext);
+    }
+
+    public List<String> getDependencies() {
+        return Collections.unmodifiableList(dependencies);
+    }
+
+    public List<String> getBlocks() {
+        return Collections.unmodifiableList(blocks);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof BuildGradleModel))
+            return false;
+        BuildGradleModel that = (BuildGradleModel) o;
+        return offline == that.offline && group.equals(that.group) && javaVersion.equals(that.javaVersion)
+                && plugins.equals(that.plugins) && repositories.equals(that.repositories) && ext.equals(that.ext)
+                && dependencies.equals(that.dependencies) && blocks.equals(that.blocks)
+                && Objects.equals(localRepository, that.localRepository);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(group, javaVersion, plugins, repositories, ext, dependencies, blocks, offline, localRepository);
+    }
+
+    /**
+     * @return independent copy, models used as cache keys must not change
+     */
+    public BuildGradleModel copy() {
+        BuildGradleModel copy = new BuildGradleModel().useGroup(group).useJavaVersion(javaVersion)
+                .useOffline(offline, localRepository);
+        copy.plugins.addAll(plugins);
+        copy.repositories.addAll(repositories);
+        copy.ext.addAll(ext);
+        copy.dependencies.addAll(dependencies);
+        copy.blocks.addAll(blocks);
+        return copy;
+    }
+}
@@ -0,0 +1,293 @@
+package com.tifires.genesis.packager.gradle;
+
+import org.gradle.tooling.GradleConnector;
+import org.gradle.tooling.ProjectConnection;
+import org.gradle.tooling.internal.consumer.DefaultGradleConnector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps Gradle project connections open between builds, one per project directory.
+ * <p>
+ * Opening a connection starts (or, in embedded mode, boots in-process) a Gradle runtime. Reusing the
+ * connection of a directory built before keeps that runtime warm, its loaded classes and in-memory caches;
+ * each build still configures the project again unless the configuration cache is on. Connections are keyed
+ * by directory, so pooling only pays off when the same project directory is built repeatedly.
+ * <p>
+ * At most {@code maxSize} connections are open at once: the least recently used idle one is closed to make
+ * room, and when all of them are leased {@link #acquire(File)} waits for a release, up to the acquire
+ * timeout. A connection idle for longer than the idle timeout is closed in the background. A connection is
+ * only closed once every lease on it is released.
+ */
+public class GradleConnectionPool implements AutoCloseable {
+    private final static Logger LOG = LoggerFactory.getLogger(GradleConnectionPool.class);
+    private static volatile GradleConnectionPool defaultPool;
+
+    private final int maxSize;
+    private final long idleTimeoutMillis;
+    private final ScheduledExecutorService evictor;
+    // access order, least recently used first
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long acquireTimeoutMillis = TimeUnit.MINUTES.toMillis(10);
+    // connections opened and not closed yet, including busy ones no longer in the entries
+    private int open = 0;
+    private boolean embedded = true;
+    private boolean closed = false;
+
+    public static GradleConnectionPool newInstance() {
+        return newInstance(8, 5, TimeUnit.MINUTES);
+    }
+
+    /**
+     * @param maxSize     maximum number of connections kept open
+     * @param idleTimeout idle time after which a connection is closed
+     * @param unit
+     * @return
+     */
+    public static GradleConnectionPool newInstance(int maxSize, long idleTimeout, TimeUnit unit) {
+        return new GradleConnectionPool(maxSize, unit.toMillis(idleTimeout));
+    }
+
+    /**
+     * @return pool shared by the whole JVM
+     */
+    public static GradleConnectionPool getDefault() {
+        if (defaultPool == null) {
+            synchronized (GradleConnectionPool.class) {
+                if (defaultPool == null)
+                    defaultPool = newInstance();
+            }
+        }
+        return defaultPool;
+    }
+
+    private GradleConnectionPool(int maxSize, long idleTimeoutMillis) {
+        if (maxSize < 1)
+            throw new IllegalArgumentException("maxSize must be positive");
+        if (idleTimeoutMillis < 1)
+            throw new IllegalArgumentException("idleTimeout must be positive");
+        this.maxSize = maxSize;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "gradle-connection-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1, idleTimeoutMillis / 2);
+        evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Run the builds in the current JVM (the default) rather than in a Gradle daemon. Only applies to
+     * connections opened afterwards.
+     *
+     * @param embedded
+     * @return
+     */
+    public synchronized GradleConnectionPool useEmbedded(boolean embedded) {
+        this.embedded = embedded;
+        return this;
+    }
+
+    /**
+     * How long {@link #acquire(File)} waits for a connection to be released when all of them are leased,
+     * 10 minutes by default.
+     *
+     * @param acquireTimeout
+     * @param unit
+     * @return
+     */
+    public synchronized GradleConnectionPool useAcquireTimeout(long acquireTimeout, TimeUnit unit) {
+        this.acquireTimeoutMillis = unit.toMillis(acquireTimeout);
+        return this;
+    }
+
+    /**
+     * Lease the connection of the given project, opening it if needed. The lease must be closed once the
+     * build is done.
+     *
+     * @param projectDirectory
+     * @return
+     * @throws IllegalStateException when the pool is closed, or no connection was released within the acquire
+     *                               timeout
+     */
+    public Lease acquire(File projectDirectory) {
+        String key = key(projectDirectory);
+        Entry evicted = null;
+        Entry entry;
+        synchronized (this) {
+            long deadline = System.currentTimeMillis() + acquireTimeoutMillis;
+            while (true) {
+                if (closed)
+                    throw new IllegalStateException("Gradle connection pool is closed");
+                entry = entries.get(key);
+                if (entry != null || open < maxSize)
+                    break;
+                evicted = removeLeastRecentlyUsedIdle();
+                if (evicted != null)
+                    break;
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0)
+                    throw new IllegalStateException("No gradle connection released within " + acquireTimeoutMillis + "ms, " + open + " open");
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for a gradle connection", e);
+                }
+            }
+            if (entry == null) {
+                entry = new Entry(key, connect(projectDirectory));
+                entries.put(key, entry);
+                open++;
+            }
+            entry.leases++;
+        }
+        if (evicted != null)
+            evicted.close();
+        return new Lease(entry);
+    }
+
+    /**
+     * @return number of connections currently open
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Close every idle connection, busy ones are closed once released.
+     */
+    public void evictAll() {
+        evict(Long.MAX_VALUE);
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        evictor.shutdownNow();
+        evictAll();
+    }
+
+    private Entry removeLeastRecentlyUsedIdle() {
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry candidate = it.next();
+            if (candidate.leases == 0) {
+                it.remove();
+                open--;
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private void evictIdle() {
+        evict(System.currentTimeMillis() - idleTimeoutMillis);
+    }
+
+    private void evict(long idleSince) {
+        List<Entry> evicted = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Entry> it = entries.values().iterator();
+            while (it.hasNext()) {
+                Entry entry = it.next();
+                if (entry.leases == 0 && entry.lastUsed <= idleSince) {
+                    it.remove();
+                    open--;
+                    evicted.add(entry);
+                } else if (idleSince == Long.MAX_VALUE) {
+                    it.remove();
+                }
+            }
+            // wake up the acquirers, they may leave if the pool was closed
+            notifyAll();
+        }
+        evicted.forEach(Entry::close);
+    }
+
+    private void release(Entry entry) {
+        boolean close;
+        synchronized (this) {
+            entry.leases--;
+            entry.lastUsed = System.currentTimeMillis();
+            // connections pushed out while busy are closed by their last user
+            close = entry.leases == 0 && entries.get(entry.key) != entry;
+            if (close)
+                open--;
+            notifyAll();
+        }
+        if (close)
+            entry.close();
+    }
+
+    private ProjectConnection connect(File projectDirectory) {
+        GradleConnector connector = GradleConnector.newConnector();
+        if (embedded)
+            ((DefaultGradleConnector) connector).embedded(true);
+        return connector.forProjectDirectory(projectDirectory).connect();
+    }
+
+    private static String key(File projectDirectory) {
+        try {
+            return projectDirectory.getCanonicalPath();
+        } catch (IOException e) {
+            return projectDirectory.getAbsolutePath();
+        }
+    }
+
+    private static final class Entry {
+        private final String key;
+        private final ProjectConnection connection;
+        private int leases = 0;
+        private long lastUsed = System.currentTimeMillis();
+
+        Entry(String key, ProjectConnection connection) {
+            this.key = key;
+            this.connection = connection;
+        }
+
+        void close() {
+            try {
+                connection.close();
+            } catch (RuntimeException e) {
+                LOG.error(e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Connection borrowed from the pool, given back on {@link #close()}.
+     */
+    public final class Lease implements AutoCloseable {
+        private final Entry entry;
+        private boolean released = false;
+
+        private Lease(Entry entry) {
+            this.entry = entry;
+        }
+
+        public ProjectConnection getConnection() {
+            return entry.connection;
+        }
+
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (released)
+                    return;
+                released = true;
+            }
+            release(entry);
+        }
+    }
+}
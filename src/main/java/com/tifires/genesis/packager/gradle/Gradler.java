@@ -2,10 +2,18 @@ package com.tifires.genesis.packager.gradle;
 
 import com.tifires.genesis.packager.commons.Resource;
 import com.tifires.genesis.packager.commons.SourceCode;
+import com.tifires.genesis.packager.metrics.Instrumentation;
+import com.tifires.genesis.packager.metrics.Metrics;
 import com.tifires.genesis.stuffs.Utils;
 import org.gradle.tooling.BuildLauncher;
+import org.gradle.tooling.CancellationToken;
 import org.gradle.tooling.GradleConnector;
 import org.gradle.tooling.ProjectConnection;
+import org.gradle.tooling.events.OperationResult;
+import org.gradle.tooling.events.OperationType;
+import org.gradle.tooling.events.ProgressListener;
+import org.gradle.tooling.events.configuration.ProjectConfigurationFinishEvent;
+import org.gradle.tooling.events.task.TaskFinishEvent;
 import org.gradle.tooling.internal.consumer.DefaultGradleConnector;
 import org.jtwig.JtwigModel;
 import org.jtwig.JtwigTemplate;
@@ -13,28 +21,132 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Objects;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Gradler {
 
     private final static Logger LOG = LoggerFactory.getLogger(Gradler.class);
-    private final JtwigTemplate template = JtwigTemplate.classpathTemplate("templates/build.gradle.twig");
+    private static final JtwigTemplate TEMPLATE = JtwigTemplate.classpathTemplate("templates/build.gradle.twig");
+    private static final int RENDER_CACHE_SIZE = 64;
+    private static final Map<BuildGradleModel, String> RENDERED = Collections.synchronizedMap(
+            new LinkedHashMap<BuildGradleModel, String>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<BuildGradleModel, String> eldest) {
+                    return size() > RENDER_CACHE_SIZE;
+                }
+            });
     private static final String srcPath = "src/main/java";
     private static final String resPath = "src/main/resources";
     private Path projectLocation;
     private File src;
     private File res;
     private File projectDirectory;
+    private GradleConnectionPool connectionPool;
+    private boolean incremental = false;
+    private BuildGradleModel buildModel = BuildGradleModel.defaults();
+    private OutputStream out = System.out;
+    private OutputStream err = System.err;
+    private CancellationToken cancellationToken;
+    private Instrumentation instrumentation = Instrumentation.NOOP;
+    private Materializer materializer = Materializer.newInstance();
+    // incremental mode: content hash of the files written by the previous builds, and files of this build
+    private final Properties state = new Properties();
+    private final Set<String> pushed = new HashSet<>();
 
     public static Gradler newInstance() {
         return new Gradler();
     }
 
+    /**
+     * Connections reused between builds of the same project directory, none by default: a connection is
+     * opened and closed per build.
+     *
+     * @param connectionPool e.g. {@link GradleConnectionPool#getDefault()}, null for none
+     * @return
+     */
+    public Gradler useConnectionPool(GradleConnectionPool connectionPool) {
+        this.connectionPool = connectionPool;
+        return this;
+    }
+
+    /**
+     * Incremental builds keep the project directory between packs: only files whose content changed are
+     * written, files no longer pushed are deleted, and gradle runs 'build' alone with the build cache on,
+     * so unchanged inputs stay up-to-date.
+     *
+     * @param incremental
+     * @return
+     */
+    public Gradler useIncremental(boolean incremental) {
+        this.incremental = incremental;
+        return this;
+    }
+
+    /**
+     * Content of the generated build.gradle, {@link BuildGradleModel#defaults()} by default.
+     *
+     * @param buildModel
+     * @return
+     */
+    public Gradler useBuildModel(BuildGradleModel buildModel) {
+        this.buildModel = buildModel.copy();
+        return this;
+    }
+
+    /**
+     * Streams receiving the gradle build output, System.out and System.err by default.
+     *
+     * @param out may be null to discard the output
+     * @param err may be null to discard the errors
+     * @return
+     */
+    public Gradler useOutput(OutputStream out, OutputStream err) {
+        this.out = out;
+        this.err = err;
+        return this;
+    }
+
+    /**
+     * @param cancellationToken cancels the running build, may be null
+     * @return
+     */
+    public Gradler useCancellationToken(CancellationToken cancellationToken) {
+        this.cancellationToken = cancellationToken;
+        return this;
+    }
+
+    /**
+     * Report the configuration and execution time of the builds, from gradle's progress events.
+     *
+     * @param instrumentation
+     * @return
+     */
+    public Gradler useInstrumentation(Instrumentation instrumentation) {
+        this.instrumentation = Objects.requireNonNull(instrumentation);
+        return this;
+    }
+
+    /**
+     * Writes the project files, all at once when the project is materialized or packed. A new
+     * {@link Materializer} per gradler by default.
+     *
+     * @param materializer
+     * @return
+     */
+    public Gradler useMaterializer(Materializer materializer) {
+        this.materializer = Objects.requireNonNull(materializer);
+        return this;
+    }
+
     public void setLocation(Path projectLocation) {
         this.projectLocation = projectLocation;
     }
@@ -44,13 +156,9 @@ public class Gradler {
         if (!projectDirectory.exists())
             projectDirectory.mkdirs();
 
-        try {
-            FileOutputStream build = new FileOutputStream(Paths.get(projectLocation.toString(), "build.gradle").toFile());
-            build.write(makeBuildGradle().getBytes());
-            build.close();
-        } catch (IOException e) {
-            LOG.error(e.getMessage(), e);
-        }
+        if (incremental)
+            loadState();
+        write(Paths.get(projectLocation.toString(), "build.gradle"), new Resource("build.gradle", makeBuildGradle().getBytes()));
 
         src = Paths.get(projectLocation.toString(), "src/main/java/").toFile();
         if (!src.exists())
@@ -64,35 +172,121 @@ public class Gradler {
     }
 
     public Gradler addSource(String packname, String classname, String srccontent) {
-        File pack = Paths.get(src.getAbsolutePath(), packname.replaceAll("\\.", "/")).toFile();
-        if (!pack.exists())
-            pack.mkdirs();
+        Path pack = Paths.get(src.getAbsolutePath(), packname.replaceAll("\\.", "/"));
+        write(pack.resolve(classname + ".java"), new Resource(classname + ".java", srccontent.getBytes()));
+        return this;
+    }
+
+    /**
+     * Write the files pushed so far: each directory is created once, then the files are written concurrently.
+     * Packing materializes the project first, and fails rather than build an incomplete project.
+     *
+     * @return
+     * @throws UncheckedIOException when a file could not be written, the others were written anyway
+     */
+    public Gradler materialize() {
+        long start = instrumentation.isEnabled() ? System.nanoTime() : 0;
         try {
-            FileOutputStream srcFile = new FileOutputStream(Paths.get(pack.toString(), classname + ".java").toFile());
-            srcFile.write(srccontent.getBytes());
-            srcFile.close();
+            materializer.materialize(projectLocation, incremental ? state : null);
         } catch (IOException e) {
-            LOG.error(e.getMessage(), e);
+            throw new UncheckedIOException(e);
         }
+        if (instrumentation.isEnabled())
+            instrumentation.time(Metrics.GRADLE_MATERIALIZE, System.nanoTime() - start);
         return this;
     }
 
 
     public Gradler pack() {
+        materialize();
+        if (incremental)
+            saveState();
+        if (connectionPool != null) {
+            try (GradleConnectionPool.Lease lease = connectionPool.acquire(projectDirectory)) {
+                build(lease.getConnection());
+            }
+            return this;
+        }
         GradleConnector gradleConnector = GradleConnector.newConnector();
         ((DefaultGradleConnector) gradleConnector).embedded(true);
         ProjectConnection conn = gradleConnector.forProjectDirectory(projectDirectory).connect();
-        BuildLauncher launcher = conn.newBuild();
-        launcher.setStandardOutput(System.out);
-        launcher.setStandardError(System.err);
-        launcher.forTasks("init", "clean", "build").run();
-        conn.close();
+        try {
+            build(conn);
+        } finally {
+            conn.close();
+        }
         return this;
     }
 
+    private void build(ProjectConnection conn) {
+        BuildLauncher launcher = conn.newBuild();
+        launcher.setStandardOutput(out);
+        launcher.setStandardError(err);
+        if (cancellationToken != null)
+            launcher.withCancellationToken(cancellationToken);
+        List<String> arguments = new ArrayList<>();
+        if (incremental)
+            arguments.add("--build-cache");
+        if (buildModel.isOffline())
+            arguments.add("--offline");
+        launcher.withArguments(arguments.toArray(new String[0]));
+        if (incremental)
+            launcher.forTasks("build");
+        else
+            launcher.forTasks("init", "clean", "build");
+        if (!instrumentation.isEnabled()) {
+            launcher.run();
+            return;
+        }
+
+        AtomicLong configurationMillis = new AtomicLong();
+        AtomicLong tasks = new AtomicLong();
+        ProgressListener listener = event -> {
+            if (event instanceof ProjectConfigurationFinishEvent) {
+                OperationResult result = ((ProjectConfigurationFinishEvent) event).getResult();
+                configurationMillis.addAndGet(result.getEndTime() - result.getStartTime());
+            } else if (event instanceof TaskFinishEvent) {
+                tasks.incrementAndGet();
+            }
+        };
+        launcher.addProgressListener(listener, EnumSet.of(OperationType.PROJECT_CONFIGURATION, OperationType.TASK));
+        long start = System.nanoTime();
+        try {
+            launcher.run();
+        } finally {
+            long configuration = TimeUnit.MILLISECONDS.toNanos(configurationMillis.get());
+            instrumentation.time(Metrics.GRADLE_CONFIGURATION, configuration);
+            instrumentation.time(Metrics.GRADLE_EXECUTION, Math.max(0, System.nanoTime() - start - configuration));
+            instrumentation.count(Metrics.GRADLE_TASKS, tasks.get());
+        }
+    }
+
     private String makeBuildGradle() {
-        JtwigModel model = JtwigModel.newModel();
-        return template.render(model);
+        return render(buildModel);
+    }
+
+    /**
+     * Render the build script of the given model, once per distinct model.
+     *
+     * @param buildModel must not change afterwards
+     * @return
+     */
+    static String render(BuildGradleModel buildModel) {
+        String rendered = RENDERED.get(buildModel);
+        if (rendered == null) {
+            JtwigModel model = JtwigModel.newModel()
+                    .with("group", buildModel.getGroup())
+                    .with("javaVersion", buildModel.getJavaVersion())
+                    .with("plugins", buildModel.getPlugins())
+                    .with("repositories", buildModel.getRepositories())
+                    .with("hasExt", !buildModel.getExt().isEmpty())
+                    .with("ext", buildModel.getExt())
+                    .with("dependencies", buildModel.getDependencies())
+                    .with("blocks", buildModel.getBlocks());
+            rendered = TEMPLATE.render(model);
+            RENDERED.put(buildModel, rendered);
+        }
+        return rendered;
     }
 
     public void pushResources(String location, Set<Resource> resources) {
@@ -101,14 +295,53 @@ public class Gradler {
     }
 
     public void pushResource(String location, Resource resource) {
-        File resPath = Paths.get(res.getAbsolutePath(), location.replaceAll("\\.", "/")).toFile();
-        if (!resPath.exists())
-            resPath.mkdirs();
+        Path resPath = Paths.get(res.getAbsolutePath(), location.replaceAll("\\.", "/"));
+        write(resPath.resolve(resource.getFilename()), resource);
+    }
 
-        try {
-            FileOutputStream resFile = new FileOutputStream(Paths.get(resPath.toString(), resource.getFilename()).toFile());
-            resFile.write(resource.getContent());
-            resFile.close();
+    /**
+     * Queue the file, written when the project is materialized.
+     */
+    private void write(Path file, Resource resource) {
+        if (incremental)
+            pushed.add(projectLocation.toAbsolutePath().relativize(file.toAbsolutePath()).toString().replace(File.separatorChar, '/'));
+        materializer.add(file, resource);
+    }
+
+    private Path stateFile() {
+        return Paths.get(projectLocation.toString(), ".genesis-state.properties");
+    }
+
+    private void loadState() {
+        state.clear();
+        pushed.clear();
+        if (!Files.exists(stateFile()))
+            return;
+        try (InputStream in = Files.newInputStream(stateFile())) {
+            state.load(in);
+        } catch (IOException e) {
+            // unreadable state, every file gets rewritten
+            LOG.error(e.getMessage(), e);
+            state.clear();
+        }
+    }
+
+    /**
+     * Delete the files of the previous builds which were not pushed again, and record the current ones.
+     */
+    private void saveState() {
+        for (String name : state.stringPropertyNames()) {
+            if (pushed.contains(name))
+                continue;
+            state.remove(name);
+            try {
+                Files.deleteIfExists(Paths.get(projectLocation.toString(), name));
+            } catch (IOException e) {
+                LOG.error(e.getMessage(), e);
+            }
+        }
+        try (OutputStream out = Files.newOutputStream(stateFile())) {
+            state.store(out, null);
         } catch (IOException e) {
             LOG.error(e.getMessage(), e);
         }
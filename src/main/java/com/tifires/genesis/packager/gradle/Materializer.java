@@ -0,0 +1,309 @@
+package com.tifires.genesis.packager.gradle;
+
+import com.tifires.genesis.packager.commons.Resource;
+import com.tifires.genesis.stuffs.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes the files of a gradle project all at once.
+ * <p>
+ * Files are queued by {@link #add(Path, Resource)} and written by {@link #materialize(Path, Properties)}: their
+ * directories are created first, each one once, then the files are written concurrently on the executor.
+ * Files unchanged since a previous snapshot of the project are hard-linked from it (copied where links are
+ * not supported) instead of being written. Existing files are replaced, never written in place, so that a
+ * snapshot sharing them through links is left untouched.
+ */
+public class Materializer {
+    private final static Logger LOG = LoggerFactory.getLogger(Materializer.class);
+
+    private ExecutorService executor = ForkJoinPool.commonPool();
+    private boolean fsync = false;
+    private Path previousSnapshot;
+    // later pushes of the same file win
+    private final Map<Path, Resource> pending = new LinkedHashMap<>();
+    private final AtomicInteger written = new AtomicInteger();
+    private final AtomicInteger linked = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+
+    public static Materializer newInstance() {
+        return new Materializer();
+    }
+
+    private Materializer() {
+    }
+
+    /**
+     * @param executor writes the files, the common pool by default; null to write them on the calling thread
+     * @return
+     */
+    public Materializer useExecutor(ExecutorService executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Force the files written, and their directories, to the disk once they are all written, off by default.
+     *
+     * @param fsync
+     * @return
+     */
+    public Materializer useFsync(boolean fsync) {
+        this.fsync = fsync;
+        return this;
+    }
+
+    /**
+     * Directory of a previous materialization of the same project: files whose content did not change are
+     * linked from there.
+     *
+     * @param previousSnapshot null for none
+     * @return
+     */
+    public Materializer usePreviousSnapshot(Path previousSnapshot) {
+        this.previousSnapshot = previousSnapshot;
+        return this;
+    }
+
+    /**
+     * Queue a file to write.
+     *
+     * @param file
+     * @param resource content of the file
+     * @return
+     */
+    public synchronized Materializer add(Path file, Resource resource) {
+        pending.put(file.toAbsolutePath().normalize(), Objects.requireNonNull(resource));
+        return this;
+    }
+
+    /**
+     * @return number of files queued
+     */
+    public synchronized int getPending() {
+        return pending.size();
+    }
+
+    /**
+     * Write the files queued so far.
+     *
+     * @param root  directory of the project, the files are named relative to it in the state and the snapshot
+     * @param state content hash by file name of the files already in place, updated as files get written;
+     *              files whose hash did not change are left as they are. May be null to write every file
+     * @return
+     * @throws IOException the first failure, once every file was attempted
+     */
+    public Materializer materialize(Path root, Properties state) throws IOException {
+        Map<Path, Resource> files;
+        synchronized (this) {
+            files = new LinkedHashMap<>(pending);
+            pending.clear();
+        }
+        Path base = root.toAbsolutePath().normalize();
+        Path snapshot = previousSnapshot != null ? previousSnapshot.toAbsolutePath().normalize() : null;
+        if (base.equals(snapshot))
+            snapshot = null;
+
+        Set<Path> parents = new TreeSet<>();
+        for (Path file : files.keySet())
+            parents.add(file.getParent());
+        for (Path directory : parents)
+            Files.createDirectories(directory);
+
+        List<Path> synced = Collections.synchronizedList(new ArrayList<>());
+        Path from = snapshot;
+        List<IOException> failures = run(files.entrySet(), file -> {
+            if (materialize(base, from, file.getKey(), file.getValue(), state))
+                synced.add(file.getKey());
+        });
+        if (fsync && !synced.isEmpty()) {
+            failures.addAll(run(synced, Materializer::force));
+            parents.forEach(Materializer::forceDirectory);
+        }
+        if (!failures.isEmpty()) {
+            IOException failure = failures.get(0);
+            failures.subList(1, failures.size()).forEach(failure::addSuppressed);
+            throw failure;
+        }
+        return this;
+    }
+
+    /**
+     * @return number of files written, since this materializer was created
+     */
+    public int getWritten() {
+        return written.get();
+    }
+
+    /**
+     * @return number of files linked or copied from the previous snapshot
+     */
+    public int getLinked() {
+        return linked.get();
+    }
+
+    /**
+     * @return number of files left as they were, their content did not change
+     */
+    public int getSkipped() {
+        return skipped.get();
+    }
+
+    /**
+     * @return true when the file was written or copied
+     */
+    private boolean materialize(Path root, Path snapshot, Path file, Resource resource, Properties state) throws IOException {
+        String name = root.relativize(file).toString().replace(File.separatorChar, '/');
+        String hash = null;
+        if (state != null) {
+            hash = hash(resource);
+            long size = resource.getSize();
+            if (hash.equals(state.getProperty(name)) && Files.exists(file) && (size < 0 || Files.size(file) == size)) {
+                skipped.incrementAndGet();
+                return false;
+            }
+        }
+
+        boolean copied = true;
+        Path previous = snapshot != null ? snapshot.resolve(name) : null;
+        if (previous != null && Files.isRegularFile(previous) && sameContent(previous, resource)) {
+            Files.deleteIfExists(file);
+            try {
+                Files.createLink(file, previous);
+                copied = false;
+            } catch (UnsupportedOperationException | IOException e) {
+                // another file store, or no links on this one
+                Files.copy(previous, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            linked.incrementAndGet();
+        } else {
+            Files.deleteIfExists(file);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                resource.transferTo(channel);
+            }
+            written.incrementAndGet();
+        }
+        if (state != null)
+            state.setProperty(name, hash);
+        return copied;
+    }
+
+    /**
+     * Run the task on every item, on the executor when there is one.
+     *
+     * @return failures, in the order of the items
+     */
+    private <T> List<IOException> run(Collection<T> items, IOConsumer<T> task) {
+        List<IOException> failures = new ArrayList<>();
+        if (executor == null) {
+            for (T item : items) {
+                try {
+                    task.accept(item);
+                } catch (IOException e) {
+                    failures.add(e);
+                }
+            }
+            return failures;
+        }
+        List<Future<?>> futures = new ArrayList<>(items.size());
+        for (T item : items)
+            futures.add(executor.submit(() -> {
+                task.accept(item);
+                return null;
+            }));
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                // fork-join pools wrap the checked exceptions of callables, possibly twice
+                Throwable cause = e.getCause();
+                while (!(cause instanceof IOException) && cause instanceof RuntimeException && cause.getCause() != null)
+                    cause = cause.getCause();
+                failures.add(cause instanceof IOException ? (IOException) cause : new IOException(e.getCause()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                futures.forEach(pending -> pending.cancel(true));
+                failures.add(new InterruptedIOException("Interrupted while materializing"));
+                break;
+            }
+        }
+        return failures;
+    }
+
+    private static boolean sameContent(Path file, Resource resource) throws IOException {
+        long size = resource.getSize();
+        if (size >= 0 && Files.size(file) != size)
+            return false;
+        try (InputStream expected = resource.openStream(); InputStream actual = Files.newInputStream(file)) {
+            byte[] left = new byte[8192];
+            byte[] right = new byte[8192];
+            while (true) {
+                int read = readFully(expected, left);
+                if (read != readFully(actual, right))
+                    return false;
+                if (read == 0)
+                    return true;
+                for (int i = 0; i < read; i++)
+                    if (left[i] != right[i])
+                        return false;
+            }
+        }
+    }
+
+    private static int readFully(InputStream in, byte[] buffer) throws IOException {
+        int total = 0;
+        for (int read; total < buffer.length && (read = in.read(buffer, total, buffer.length - total)) != -1; )
+            total += read;
+        return total;
+    }
+
+    private static String hash(Resource resource) throws IOException {
+        MessageDigest digest = Utils.sha256();
+        resource.writeTo(new DigestOutputStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                // the digest stream already hashed the whole buffer, nothing to do byte per byte
+            }
+        }, digest));
+        return Utils.toHex(digest.digest());
+    }
+
+    private static void force(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    private static void forceDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // directories cannot be opened on every platform, their entries are then synced with the files
+            LOG.debug(e.getMessage(), e);
+        }
+    }
+
+    private interface IOConsumer<T> {
+        void accept(T t) throws IOException;
+    }
+}
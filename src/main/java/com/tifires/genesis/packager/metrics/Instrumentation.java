@@ -0,0 +1,36 @@
+package com.tifires.genesis.packager.metrics;
+
+/**
+ * Receives the timings and counts of the compile, pack and gradle stages, see {@link Metrics} for their
+ * names. Implementations are called concurrently and must be thread-safe.
+ * <p>
+ * Callers check {@link #isEnabled()} before measuring anything, so {@link #NOOP}, the default everywhere,
+ * costs a field read and a branch per measure point.
+ */
+public interface Instrumentation {
+
+    Instrumentation NOOP = new Instrumentation() {
+        @Override
+        public boolean isEnabled() {
+            return false;
+        }
+    };
+
+    default boolean isEnabled() {
+        return true;
+    }
+
+    /**
+     * @param metric
+     * @param nanos  duration of one occurrence
+     */
+    default void time(String metric, long nanos) {
+    }
+
+    /**
+     * @param metric
+     * @param amount added to the counter
+     */
+    default void count(String metric, long amount) {
+    }
+}
@@ -0,0 +1,44 @@
+package com.tifires.genesis.packager.metrics;
+
+/**
+ * Names of the metrics reported to {@link Instrumentation}. Timers are in nanoseconds, byte counts in bytes.
+ */
+public final class Metrics {
+    /** counter: sources given to javac */
+    public static final String COMPILE_SOURCES = "genesis.compile.sources";
+    /** timer: one javac invocation */
+    public static final String COMPILE_JAVAC = "genesis.compile.javac";
+    /** timer: one javac invocation, followed by the name of the compilation profile, e.g. 'genesis.compile.javac.fast' */
+    public static final String COMPILE_JAVAC_PROFILE = "genesis.compile.javac.";
+    /** counter: diagnostics reported by javac, warnings and notes included */
+    public static final String COMPILE_DIAGNOSTICS = "genesis.compile.diagnostics";
+    /** counter: bytecode produced by javac */
+    public static final String COMPILE_BYTECODE_BYTES = "genesis.compile.bytecode.bytes";
+    /** counter: compilations served from the compilation cache */
+    public static final String COMPILE_CACHE_HITS = "genesis.compile.cache.hits";
+    /** counter: compilations not found in the compilation cache */
+    public static final String COMPILE_CACHE_MISSES = "genesis.compile.cache.misses";
+    /** timer: loading the compiled classes after a compilation */
+    public static final String CLASS_LOADING = "genesis.compile.classloading";
+
+    /** timer: compressing and writing one jar entry */
+    public static final String JAR_ENTRY = "genesis.jar.entry";
+    /** counter: jar entry content before compression */
+    public static final String JAR_BYTES_UNCOMPRESSED = "genesis.jar.bytes.uncompressed";
+    /** counter: jar entry content after compression */
+    public static final String JAR_BYTES_COMPRESSED = "genesis.jar.bytes.compressed";
+    /** timer: a whole pack, compilation included */
+    public static final String PACK = "genesis.pack";
+
+    /** timer: writing the files of a gradle project */
+    public static final String GRADLE_MATERIALIZE = "genesis.gradle.materialize";
+    /** timer: configuration phase of a gradle build */
+    public static final String GRADLE_CONFIGURATION = "genesis.gradle.configuration";
+    /** timer: a gradle build apart from its configuration */
+    public static final String GRADLE_EXECUTION = "genesis.gradle.execution";
+    /** counter: gradle tasks run */
+    public static final String GRADLE_TASKS = "genesis.gradle.tasks";
+
+    private Metrics() {
+    }
+}
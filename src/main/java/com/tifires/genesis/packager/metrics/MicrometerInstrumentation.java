@@ -0,0 +1,36 @@
+package com.tifires.genesis.packager.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reports to a Micrometer registry: timers as {@link io.micrometer.core.instrument.Timer}s and counts as
+ * {@link io.micrometer.core.instrument.Counter}s. Micrometer is an optional dependency, only needed when this
+ * class is used.
+ */
+public class MicrometerInstrumentation implements Instrumentation {
+    private final MeterRegistry registry;
+    private final Tags tags;
+
+    public static MicrometerInstrumentation newInstance(MeterRegistry registry, String... tags) {
+        return new MicrometerInstrumentation(registry, Tags.of(tags));
+    }
+
+    private MicrometerInstrumentation(MeterRegistry registry, Tags tags) {
+        this.registry = Objects.requireNonNull(registry);
+        this.tags = tags;
+    }
+
+    @Override
+    public void time(String metric, long nanos) {
+        registry.timer(metric, tags).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void count(String metric, long amount) {
+        registry.counter(metric, tags).increment(amount);
+    }
+}
@@ -0,0 +1,91 @@
+package com.tifires.genesis.packager.pack;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.Objects;
+
+/**
+ * Directory of packed jars named after the hash of their inputs, so that packing the same inputs again
+ * returns the jar packed before instead of compiling and writing it.
+ * <p>
+ * Jars are moved in under a temporary name and renamed atomically: readers never see a partial jar, and
+ * any number of packers, in this JVM or others, can share the directory. Nothing is ever evicted.
+ */
+public class ArtifactStore {
+    private final Path directory;
+
+    /**
+     * @param directory created if needed
+     * @return
+     * @throws IOException
+     */
+    public static ArtifactStore newInstance(Path directory) throws IOException {
+        return new ArtifactStore(directory);
+    }
+
+    private ArtifactStore(Path directory) throws IOException {
+        this.directory = Files.createDirectories(Objects.requireNonNull(directory));
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @param inputHash
+     * @return the jar packed from the given inputs, null if there is none
+     */
+    public Path get(String inputHash) {
+        Path jar = pathOf(inputHash);
+        return Files.isRegularFile(jar) ? jar : null;
+    }
+
+    /**
+     * Move the given jar into the store, replacing the one packed from the same inputs if any.
+     *
+     * @param inputHash
+     * @param jar
+     * @return the jar in the store
+     * @throws IOException
+     */
+    public Path put(String inputHash, Path jar) throws IOException {
+        Path target = pathOf(inputHash);
+        Path temp = Files.createTempFile(directory, inputHash, ".tmp");
+        try {
+            Files.move(jar, temp, StandardCopyOption.REPLACE_EXISTING);
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return target;
+    }
+
+    /**
+     * @param file
+     * @return true if the given file is in the store directory, its content must then never change
+     */
+    public boolean contains(Path file) {
+        Path parent = file.toAbsolutePath().normalize().getParent();
+        if (parent == null)
+            return false;
+        try {
+            return Files.isSameFile(parent, directory);
+        } catch (IOException e) {
+            return parent.equals(directory.toAbsolutePath().normalize());
+        }
+    }
+
+    public boolean remove(String inputHash) throws IOException {
+        return Files.deleteIfExists(pathOf(inputHash));
+    }
+
+    private Path pathOf(String inputHash) {
+        if (!inputHash.matches("[0-9a-zA-Z_-]+"))
+            throw new IllegalArgumentException("Invalid input hash " + inputHash);
+        return directory.resolve(inputHash + ".jar");
+    }
+}
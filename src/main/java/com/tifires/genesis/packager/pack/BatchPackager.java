@@ -0,0 +1,216 @@
+package com.tifires.genesis.packager.pack;
+
+import com.tifires.genesis.packager.commons.CompiledCode;
+import com.tifires.genesis.packager.commons.Resource;
+import com.tifires.genesis.packager.compile.Compiler;
+import com.tifires.genesis.packager.compile.CompilerEngine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+import java.util.stream.Collectors;
+
+/**
+ * Packs many artifacts sharing part of their code in one go.
+ * <p>
+ * The common sources are compiled once; the sources of each artifact are then compiled against the common
+ * classes, without recompiling them, and the jars are written concurrently. Every compilation goes through
+ * the same {@link CompilerEngine}, so javac stays warm over the batch. Classes go from bytecode to jar
+ * entries without ever being loaded. Jars are written next to their output and moved in place once
+ * complete. An artifact which fails to compile or to be written is reported in its result, its output is
+ * left as it was and the others are packed anyway.
+ */
+public class BatchPackager {
+    private final static Logger LOG = LoggerFactory.getLogger(BatchPackager.class);
+    private final Map<String, String> commonSources = new LinkedHashMap<>();
+    private final Map<String, Set<Resource>> commonResources = new LinkedHashMap<>();
+    private CompilerEngine engine = CompilerEngine.getDefault();
+    private ExecutorService executor = ForkJoinPool.commonPool();
+    private CompressionPolicy compression = CompressionPolicy.newInstance();
+    private String[] options = new String[0];
+    private boolean includeCommon = true;
+    private final String author = "tifires.com";
+
+    public static BatchPackager newInstance() {
+        return new BatchPackager();
+    }
+
+    private BatchPackager() {
+    }
+
+    /**
+     * Source compiled once and visible to the sources of every artifact.
+     *
+     * @param className
+     * @param content
+     * @return
+     */
+    public BatchPackager addCommonSource(String className, String content) {
+        commonSources.put(Objects.requireNonNull(className), Objects.requireNonNull(content));
+        return this;
+    }
+
+    /**
+     * Resources added to every artifact.
+     *
+     * @param location
+     * @param resources
+     * @return
+     */
+    public BatchPackager addCommonResources(String location, Resource... resources) {
+        commonResources.computeIfAbsent(location, k -> new LinkedHashSet<>()).addAll(Arrays.asList(resources));
+        return this;
+    }
+
+    public BatchPackager useEngine(CompilerEngine engine) {
+        this.engine = Objects.requireNonNull(engine);
+        return this;
+    }
+
+    /**
+     * Workers compiling and writing the artifacts, the common fork-join pool by default.
+     *
+     * @param executor
+     * @return
+     */
+    public BatchPackager useExecutor(ExecutorService executor) {
+        this.executor = Objects.requireNonNull(executor);
+        return this;
+    }
+
+    public BatchPackager useCompression(CompressionPolicy compression) {
+        this.compression = Objects.requireNonNull(compression);
+        return this;
+    }
+
+    public BatchPackager useOptions(String... options) {
+        this.options = options.clone();
+        return this;
+    }
+
+    /**
+     * Whether the common classes and resources go into every jar (the default) or are expected on the
+     * classpath the artifacts are deployed to.
+     *
+     * @param includeCommon
+     * @return
+     */
+    public BatchPackager includeCommon(boolean includeCommon) {
+        this.includeCommon = includeCommon;
+        return this;
+    }
+
+    /**
+     * Pack every artifact, blocking until all of them are done.
+     *
+     * @param specs
+     * @param withSources add the sources next to the classes
+     * @return one result per spec, in the same order
+     */
+    public List<PackageResult> packAll(Collection<PackageSpec> specs, boolean withSources) {
+        Compiler common;
+        Map<String, CompiledCode> commonCodes;
+        try {
+            common = newCompiler(null);
+            for (Map.Entry<String, String> source : commonSources.entrySet())
+                common.addSource(source.getKey(), source.getValue());
+            commonCodes = commonSources.isEmpty() ? Collections.emptyMap() : common.compileToBytecode();
+        } catch (Exception e) {
+            LOG.error(e.getMessage(), e);
+            // nothing can be packed without the common classes
+            return specs.stream().map(spec -> new PackageResult(spec.getId(), null, null, e)).collect(Collectors.toList());
+        }
+
+        List<CompletableFuture<PackageResult>> results = specs.stream()
+                .map(spec -> CompletableFuture.supplyAsync(() -> pack(spec, common, commonCodes, withSources), executor))
+                .collect(Collectors.toList());
+        return results.stream().map(CompletableFuture::join).collect(Collectors.toList());
+    }
+
+    private PackageResult pack(PackageSpec spec, Compiler common, Map<String, CompiledCode> commonCodes, boolean withSources) {
+        try {
+            // javac sees the common classes through the bytecode held by the common class loader
+            Compiler compiler = newCompiler(common);
+            for (Map.Entry<String, String> source : spec.getSources().entrySet())
+                compiler.addSource(source.getKey(), source.getValue());
+            Map<String, CompiledCode> codes = spec.getSources().isEmpty() ? Collections.emptyMap() : compiler.compileToBytecode();
+
+            if (spec.getOutput() == null) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                writeJar(out, spec, commonCodes, codes, withSources);
+                return new PackageResult(spec.getId(), null, out.toByteArray(), null);
+            }
+            Path output = spec.getOutput();
+            Path temp = Files.createTempFile(output.toAbsolutePath().getParent(), output.getFileName().toString(), ".tmp");
+            try {
+                try (OutputStream out = Files.newOutputStream(temp)) {
+                    writeJar(out, spec, commonCodes, codes, withSources);
+                }
+                try {
+                    Files.move(temp, output, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp, output, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            return new PackageResult(spec.getId(), spec.getOutput(), null, null);
+        } catch (Exception e) {
+            LOG.error(spec.getId() + ": " + e.getMessage(), e);
+            return new PackageResult(spec.getId(), null, null, e);
+        }
+    }
+
+    private Compiler newCompiler(Compiler common) {
+        Compiler compiler = Compiler.newInstance().useEngine(engine).useOptions(options);
+        if (common != null)
+            compiler.useParentClassLoader(common.getClassloader());
+        return compiler;
+    }
+
+    private void writeJar(OutputStream out, PackageSpec spec, Map<String, CompiledCode> commonCodes,
+                          Map<String, CompiledCode> codes, boolean withSources) throws IOException {
+        Manifest manifest = new Manifest();
+        Attributes global = manifest.getMainAttributes();
+        global.put(Attributes.Name.MANIFEST_VERSION, spec.getVersion());
+        global.put(new Attributes.Name("Created-By"), author);
+
+        // artifacts are written concurrently already, entries are deflated on the artifact's own thread
+        try (JarWriter jar = new JarWriter(out, manifest, compression, null)) {
+            if (includeCommon)
+                writeResources(jar, commonResources);
+            writeResources(jar, spec.getResources());
+            if (includeCommon)
+                writeClasses(jar, commonCodes, withSources ? commonSources : Collections.emptyMap());
+            writeClasses(jar, codes, withSources ? spec.getSources() : Collections.emptyMap());
+        }
+    }
+
+    private static void writeResources(JarWriter jar, Map<String, Set<Resource>> resources) throws IOException {
+        for (Map.Entry<String, Set<Resource>> location : resources.entrySet()) {
+            String path = location.getKey().replaceAll("\\.", "/");
+            for (Resource resource : location.getValue())
+                jar.write(path.isEmpty() ? resource.getFilename() : path + "/" + resource.getFilename(), resource);
+        }
+    }
+
+    private static void writeClasses(JarWriter jar, Map<String, CompiledCode> compiledCodes, Map<String, String> sources) throws IOException {
+        for (Map.Entry<String, CompiledCode> compiledCode : compiledCodes.entrySet())
+            jar.write(compiledCode.getKey().replace('.', '/') + ".class", compiledCode.getValue().getByteCode());
+        for (Map.Entry<String, String> source : sources.entrySet())
+            jar.write(source.getKey().replace('.', '/') + ".java", source.getValue().getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,70 @@
+package com.tifires.genesis.packager.pack;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Output stream writing into a byte buffer, replaced by a larger one when full.
+ */
+public class ByteBufferOutputStream extends OutputStream {
+    private ByteBuffer buffer;
+    private final boolean direct;
+
+    public ByteBufferOutputStream() {
+        this(64 * 1024, false);
+    }
+
+    /**
+     * @param capacity initial capacity
+     * @param direct   allocate direct (off-heap) buffers
+     */
+    public ByteBufferOutputStream(int capacity, boolean direct) {
+        this.direct = direct;
+        this.buffer = allocate(Math.max(capacity, 16));
+    }
+
+    @Override
+    public void write(int b) {
+        ensureRemaining(1);
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensureRemaining(len);
+        buffer.put(b, off, len);
+    }
+
+    /**
+     * @return number of bytes written so far
+     */
+    public int size() {
+        return buffer.position();
+    }
+
+    /**
+     * @return the bytes written so far, ready to be read; shares its content with this stream
+     */
+    public ByteBuffer getBuffer() {
+        ByteBuffer result = buffer.duplicate();
+        result.flip();
+        return result;
+    }
+
+    private void ensureRemaining(int length) {
+        if (buffer.remaining() >= length)
+            return;
+        long required = (long) buffer.position() + length;
+        if (required > Integer.MAX_VALUE - 8)
+            throw new OutOfMemoryError("Buffer cannot grow beyond 2GB");
+        int capacity = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(required, 2L * buffer.capacity()));
+        ByteBuffer grown = allocate(capacity);
+        buffer.flip();
+        grown.put(buffer);
+        buffer = grown;
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+}
@@ -0,0 +1,114 @@
+package com.tifires.genesis.packager.pack;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Compression method and level of jar entries, per file extension.
+ * <p>
+ * Formats which are compressed already (images, archives...) are stored by default, everything else is
+ * deflated at the default level. A deflated entry which does not get smaller is stored anyway.
+ */
+public class CompressionPolicy {
+    public static final int STORED = ZipEntry.STORED;
+    public static final int DEFLATED = ZipEntry.DEFLATED;
+
+    private int defaultMethod = DEFLATED;
+    private int defaultLevel = Deflater.DEFAULT_COMPRESSION;
+    private final Map<String, int[]> byExtension = new HashMap<>();
+
+    public static CompressionPolicy newInstance() {
+        return new CompressionPolicy()
+                .store("png", "jpg", "jpeg", "gif", "webp", "ico", "zip", "jar", "war", "gz", "bz2", "xz", "7z",
+                        "woff", "woff2", "mp3", "mp4", "ogg", "pdf");
+    }
+
+    /**
+     * Policy deflating every entry with the given level.
+     *
+     * @param level
+     * @return
+     */
+    public static CompressionPolicy deflateAll(int level) {
+        return new CompressionPolicy().useDefault(DEFLATED, level);
+    }
+
+    public static CompressionPolicy storeAll() {
+        return new CompressionPolicy().useDefault(STORED, Deflater.NO_COMPRESSION);
+    }
+
+    private CompressionPolicy() {
+    }
+
+    /**
+     * @param method {@link #STORED} or {@link #DEFLATED}
+     * @param level  deflate level, from 0 to 9 or -1 for the default
+     * @return
+     */
+    public CompressionPolicy useDefault(int method, int level) {
+        this.defaultMethod = checkMethod(method);
+        this.defaultLevel = checkLevel(level);
+        return this;
+    }
+
+    /**
+     * @param extension file extension, without the dot, e.g. 'json'
+     * @param method    {@link #STORED} or {@link #DEFLATED}
+     * @param level     deflate level, from 0 to 9 or -1 for the default
+     * @return
+     */
+    public CompressionPolicy use(String extension, int method, int level) {
+        byExtension.put(extension.toLowerCase(Locale.ROOT), new int[]{checkMethod(method), checkLevel(level)});
+        return this;
+    }
+
+    public CompressionPolicy store(String... extensions) {
+        for (String extension : extensions)
+            use(extension, STORED, Deflater.NO_COMPRESSION);
+        return this;
+    }
+
+    public int methodFor(String entryName) {
+        int[] rule = ruleFor(entryName);
+        return rule != null ? rule[0] : defaultMethod;
+    }
+
+    public int levelFor(String entryName) {
+        int[] rule = ruleFor(entryName);
+        return rule != null ? rule[1] : defaultLevel;
+    }
+
+    private int[] ruleFor(String entryName) {
+        int dot = entryName.lastIndexOf('.');
+        if (dot < 0 || dot < entryName.lastIndexOf('/'))
+            return null;
+        return byExtension.get(entryName.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * @return stable description of the rules, equal for policies compressing the same way
+     */
+    @Override
+    public String toString() {
+        StringBuilder rules = new StringBuilder("CompressionPolicy{default=").append(defaultMethod).append(':').append(defaultLevel);
+        new TreeMap<>(byExtension).forEach((extension, rule) ->
+                rules.append(", ").append(extension).append('=').append(rule[0]).append(':').append(rule[1]));
+        return rules.append('}').toString();
+    }
+
+    private static int checkMethod(int method) {
+        if (method != STORED && method != DEFLATED)
+            throw new IllegalArgumentException("Unsupported compression method " + method);
+        return method;
+    }
+
+    private static int checkLevel(int level) {
+        if (level < -1 || level > 9)
+            throw new IllegalArgumentException("Unsupported compression level " + level);
+        return level;
+    }
+}
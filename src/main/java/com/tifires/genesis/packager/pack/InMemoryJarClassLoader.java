@@ -0,0 +1,302 @@
+package com.tifires.genesis.packager.pack;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.ProtectionDomain;
+import java.util.*;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Class loader serving the classes and resources of a jar held in memory, e.g. the bytes just packed or a
+ * jar file read by {@link #ofFile(Path, ClassLoader)}, without extracting it nor going through the JDK jar
+ * cache.
+ * <p>
+ * The central directory is read once into a table by entry name; every lookup afterwards is a map access
+ * and entries are only inflated when a class is defined or a resource is read. Stored entries are defined
+ * straight from the buffer. It is parallel capable.
+ */
+public class InMemoryJarClassLoader extends ClassLoader {
+
+    /** jars up to this size are read onto the heap by {@link #ofFile(Path, ClassLoader)}, larger ones mapped */
+    public static final long MAPPING_THRESHOLD = 16 * 1024 * 1024;
+
+    static {
+        registerAsParallelCapable();
+    }
+
+    private final ByteBuffer jar;
+    private final Map<String, ZipDirectory.Entry> entries;
+    private final Map<String, Long> dataOffsets = new HashMap<>();
+    private final Manifest manifest;
+    private final URLStreamHandler handler = new EntryHandler();
+    private final String id = Integer.toHexString(System.identityHashCode(this));
+
+    /**
+     * @param jar    the whole jar, from its position to its limit; not copied and not to be modified
+     * @param parent
+     * @return
+     * @throws IOException when the jar cannot be read
+     */
+    public static InMemoryJarClassLoader of(ByteBuffer jar, ClassLoader parent) throws IOException {
+        return new InMemoryJarClassLoader(jar, parent);
+    }
+
+    /**
+     * Load the given jar file. Jars up to {@link #MAPPING_THRESHOLD} are read onto the heap at once, the file is
+     * then closed and may be deleted or replaced. Larger jars are memory-mapped: on Windows the file stays
+     * locked until the mapping is garbage-collected, i.e. after the class loader.
+     *
+     * @param jar
+     * @param parent
+     * @return
+     * @throws IOException
+     */
+    public static InMemoryJarClassLoader ofFile(Path jar, ClassLoader parent) throws IOException {
+        try (FileChannel channel = FileChannel.open(jar, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > MAPPING_THRESHOLD)
+                return of(channel.map(FileChannel.MapMode.READ_ONLY, 0, size), parent);
+            ByteBuffer content = ByteBuffer.allocate((int) size);
+            while (content.hasRemaining()) {
+                if (channel.read(content, content.position()) < 0)
+                    throw new ZipException("Unexpected end of " + jar);
+            }
+            content.flip();
+            return of(content, parent);
+        }
+    }
+
+    private InMemoryJarClassLoader(ByteBuffer jar, ClassLoader parent) throws IOException {
+        super(parent);
+        this.jar = jar.slice();
+        this.entries = new HashMap<>(ZipDirectory.read(this.jar));
+        for (ZipDirectory.Entry entry : entries.values())
+            dataOffsets.put(entry.name, ZipDirectory.dataOffset(this.jar, entry));
+        ZipDirectory.Entry manifestEntry = entries.get(JarFile.MANIFEST_NAME);
+        this.manifest = manifestEntry != null ? new Manifest(open(manifestEntry)) : null;
+    }
+
+    /**
+     * @return manifest of the jar, null if it has none
+     */
+    public Manifest getManifest() {
+        return manifest;
+    }
+
+    /**
+     * @return names of the jar entries
+     */
+    public Set<String> getEntryNames() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        ZipDirectory.Entry entry = entries.get(name.replace('.', '/').concat(".class"));
+        if (entry == null)
+            throw new ClassNotFoundException(name);
+        // loadClass already holds this lock, findClass may be called directly though
+        synchronized (getClassLoadingLock(name)) {
+            Class<?> loaded = findLoadedClass(name);
+            if (loaded != null)
+                return loaded;
+            definePackageOf(name);
+            try {
+                if (entry.method == CompressionPolicy.STORED)
+                    return defineClass(name, data(entry), (ProtectionDomain) null);
+                byte[] byteCode = inflate(entry);
+                return defineClass(name, byteCode, 0, byteCode.length);
+            } catch (IOException e) {
+                throw new ClassNotFoundException(name, e);
+            }
+        }
+    }
+
+    // getDefinedPackage replaces getPackage from Java 9 on, the build targets Java 8
+    @SuppressWarnings("deprecation")
+    private void definePackageOf(String className) {
+        int dot = className.lastIndexOf('.');
+        if (dot < 0)
+            return;
+        String packageName = className.substring(0, dot);
+        if (getPackage(packageName) != null)
+            return;
+        try {
+            if (manifest != null) {
+                Attributes main = manifest.getMainAttributes();
+                definePackage(packageName, main.getValue(Attributes.Name.SPECIFICATION_TITLE),
+                        main.getValue(Attributes.Name.SPECIFICATION_VERSION),
+                        main.getValue(Attributes.Name.SPECIFICATION_VENDOR),
+                        main.getValue(Attributes.Name.IMPLEMENTATION_TITLE),
+                        main.getValue(Attributes.Name.IMPLEMENTATION_VERSION),
+                        main.getValue(Attributes.Name.IMPLEMENTATION_VENDOR), null);
+            } else {
+                definePackage(packageName, null, null, null, null, null, null, null);
+            }
+        } catch (IllegalArgumentException e) {
+            // defined concurrently by another class of the package
+        }
+    }
+
+    @Override
+    protected URL findResource(String name) {
+        ZipDirectory.Entry entry = entries.get(name);
+        if (entry == null)
+            return null;
+        try {
+            return new URL("genesis-jar", id, -1, "/" + name, handler);
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+
+    @Override
+    protected Enumeration<URL> findResources(String name) {
+        URL url = findResource(name);
+        return url == null ? Collections.<URL>emptyEnumeration() : Collections.enumeration(Collections.singletonList(url));
+    }
+
+    /**
+     * Parent first as {@link ClassLoader#getResourceAsStream(String)}, but reads the entries of this jar
+     * without going through a URL.
+     */
+    @Override
+    public InputStream getResourceAsStream(String name) {
+        ZipDirectory.Entry entry = entries.get(name);
+        if (entry == null)
+            return super.getResourceAsStream(name);
+        InputStream parentStream = getParent() != null ? getParent().getResourceAsStream(name) : null;
+        if (parentStream != null)
+            return parentStream;
+        try {
+            return open(entry);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private ByteBuffer data(ZipDirectory.Entry entry) throws IOException {
+        long offset = dataOffsets.get(entry.name);
+        if (offset + entry.compressedSize > jar.remaining())
+            throw new ZipException("Truncated entry " + entry.name);
+        return ZipDirectory.slice(jar, offset, (int) entry.compressedSize);
+    }
+
+    private InputStream open(ZipDirectory.Entry entry) throws IOException {
+        InputStream raw = new ByteBufferInputStream(data(entry));
+        if (entry.method == CompressionPolicy.STORED)
+            return raw;
+        if (entry.method != CompressionPolicy.DEFLATED)
+            throw new ZipException("Unsupported compression method " + entry.method + " for " + entry.name);
+        return new InflaterInputStream(raw, new Inflater(true), 8192) {
+            private boolean closed = false;
+
+            @Override
+            public void close() throws IOException {
+                if (!closed) {
+                    closed = true;
+                    inf.end();
+                }
+                super.close();
+            }
+        };
+    }
+
+    private byte[] inflate(ZipDirectory.Entry entry) throws IOException {
+        ByteBuffer data = data(entry);
+        if (entry.method != CompressionPolicy.DEFLATED)
+            throw new ZipException("Unsupported compression method " + entry.method + " for " + entry.name);
+        byte[] compressed = new byte[data.remaining()];
+        data.get(compressed);
+        byte[] content = new byte[(int) entry.size];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(compressed);
+            int inflated = 0;
+            while (inflated < content.length && !inflater.finished()) {
+                int read = inflater.inflate(content, inflated, content.length - inflated);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+                inflated += read;
+            }
+            if (inflated != content.length)
+                throw new ZipException("Invalid entry size for " + entry.name);
+        } catch (DataFormatException e) {
+            throw new ZipException("Invalid deflated content for " + entry.name + ": " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+        return content;
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0)
+                return 0;
+            if (!buffer.hasRemaining())
+                return -1;
+            int read = Math.min(len, buffer.remaining());
+            buffer.get(b, off, read);
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    /**
+     * Serves the entries of this jar to the URLs it hands out.
+     */
+    private final class EntryHandler extends URLStreamHandler {
+        @Override
+        protected URLConnection openConnection(URL url) throws IOException {
+            ZipDirectory.Entry entry = entries.get(url.getPath().substring(1));
+            if (entry == null)
+                throw new IOException("No entry " + url.getPath() + " in " + url);
+            return new URLConnection(url) {
+                @Override
+                public void connect() {
+                    connected = true;
+                }
+
+                @Override
+                public InputStream getInputStream() throws IOException {
+                    return open(entry);
+                }
+
+                @Override
+                public long getContentLengthLong() {
+                    return entry.size;
+                }
+            };
+        }
+    }
+}
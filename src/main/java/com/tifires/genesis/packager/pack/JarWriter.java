@@ -0,0 +1,519 @@
+package com.tifires.genesis.packager.pack;
+
+import com.tifires.genesis.packager.commons.Resource;
+import com.tifires.genesis.packager.metrics.Instrumentation;
+import com.tifires.genesis.packager.metrics.Metrics;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Jar writer deflating entries in parallel.
+ * <p>
+ * Every entry is handed to a worker which computes its CRC and deflates it into a buffer; the calling thread
+ * then writes the entries in the order they were added, copying the deflated bytes raw into the archive.
+ * At most {@code maxPending} entries are buffered, adding an entry beyond that writes the oldest ones first.
+ * <p>
+ * Resources larger than the streaming threshold, or of unknown size, are never buffered: once the entries
+ * before them are written, their content is streamed from its source straight into the archive, so the heap
+ * used does not depend on their size. Such entries are limited to 4GB. Archives with more than 65535
+ * entries or larger than 4GB are written in the zip64 format.
+ */
+public class JarWriter implements Closeable {
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+    private static final int DATA_DESCRIPTOR = 0x08074b50;
+    private static final int UTF8_FLAG = 0x0800;
+    private static final int DATA_DESCRIPTOR_FLAG = 0x0008;
+    private static final long ZIP32_LIMIT = 0xFFFFFFFFL;
+    /** timestamp of reproducible archives, the first day valid in every zip tool */
+    public static final LocalDateTime REPRODUCIBLE_TIME = LocalDateTime.of(1980, 2, 1, 0, 0);
+
+    private final CountingOutputStream out;
+    private final CompressionPolicy policy;
+    private final ExecutorService executor;
+    private final int maxPending;
+    private long entryTime = dosTime(System.currentTimeMillis());
+    private final Deque<Future<Entry>> pending = new ArrayDeque<>();
+    private final List<Entry> written = new ArrayList<>();
+    private final Set<String> names = new HashSet<>();
+    private long streamingThreshold = 1024 * 1024;
+    private Instrumentation instrumentation = Instrumentation.NOOP;
+    private boolean closed = false;
+
+    /**
+     * @param out      stream the archive is written to, closed with the writer
+     * @param manifest manifest, written first, may be null
+     * @param policy   compression of the entries
+     * @param executor workers deflating the entries, null to deflate on the calling thread
+     * @throws IOException
+     */
+    public JarWriter(OutputStream out, Manifest manifest, CompressionPolicy policy, ExecutorService executor) throws IOException {
+        this(out, manifest, policy, executor, 4 * Runtime.getRuntime().availableProcessors());
+    }
+
+    public JarWriter(OutputStream out, Manifest manifest, CompressionPolicy policy, ExecutorService executor, int maxPending) throws IOException {
+        this.out = new CountingOutputStream(new BufferedOutputStream(Objects.requireNonNull(out), 64 * 1024));
+        this.policy = Objects.requireNonNull(policy);
+        this.executor = executor;
+        this.maxPending = Math.max(1, maxPending);
+        if (manifest != null) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            manifest.write(bytes);
+            write(JarFile.MANIFEST_NAME, bytes.toByteArray());
+        }
+    }
+
+    /**
+     * Add an entry to the archive.
+     *
+     * @param name    entry name, '/' separated
+     * @param content
+     * @throws IOException when the name is taken already or a previous entry failed
+     */
+    public void write(String name, byte[] content) throws IOException {
+        checkName(name);
+        Objects.requireNonNull(content);
+        submit(name, content);
+    }
+
+    /**
+     * Add a resource to the archive, its content is only read once it is written.
+     *
+     * @param name     entry name, '/' separated
+     * @param resource
+     * @throws IOException when the name is taken already or a previous entry failed
+     */
+    public void write(String name, Resource resource) throws IOException {
+        checkName(name);
+        long size = resource.getSize();
+        if (size >= 0 && size <= streamingThreshold) {
+            submit(name, resource.getContent());
+        } else {
+            while (!pending.isEmpty())
+                writeNext();
+            writeStreamed(name, resource);
+        }
+    }
+
+    /**
+     * Resources larger than this are streamed into the archive rather than buffered, 1MB by default.
+     *
+     * @param bytes
+     * @return
+     */
+    public JarWriter useStreamingThreshold(long bytes) {
+        this.streamingThreshold = bytes;
+        return this;
+    }
+
+    /**
+     * Date and time of every entry, the time the writer was created by default. To be set before any entry
+     * but the manifest is written, e.g. to {@link #REPRODUCIBLE_TIME}.
+     *
+     * @param time local date and time, stored as is whatever the time zone
+     * @return
+     */
+    public JarWriter useTimestamp(LocalDateTime time) {
+        if (!written.isEmpty())
+            throw new IllegalStateException("Entries were written already");
+        this.entryTime = dosTime(time);
+        return this;
+    }
+
+    /**
+     * Report the time spent per entry and the bytes before and after compression.
+     *
+     * @param instrumentation
+     * @return
+     */
+    public JarWriter useInstrumentation(Instrumentation instrumentation) {
+        this.instrumentation = Objects.requireNonNull(instrumentation);
+        return this;
+    }
+
+    private void checkName(String name) throws IOException {
+        if (closed)
+            throw new IOException("Jar writer is closed");
+        if (!names.add(name))
+            throw new ZipException("duplicate entry: " + name);
+    }
+
+    private void submit(String name, byte[] content) throws IOException {
+        if (executor == null) {
+            pending.add(CompletableFuture.completedFuture(compress(name, content)));
+        } else {
+            pending.add(executor.submit(() -> compress(name, content)));
+        }
+        while (pending.size() > maxPending)
+            writeNext();
+    }
+
+    private Entry compress(String name, byte[] content) {
+        if (!instrumentation.isEnabled())
+            return Entry.compress(name, content, policy);
+        long start = System.nanoTime();
+        Entry entry = Entry.compress(name, content, policy);
+        entry.nanos = System.nanoTime() - start;
+        return entry;
+    }
+
+    /**
+     * @return number of entries added so far
+     */
+    public int size() {
+        return names.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            while (!pending.isEmpty())
+                writeNext();
+            writeCentralDirectory();
+        } finally {
+            pending.forEach(future -> future.cancel(false));
+            out.close();
+        }
+    }
+
+    private void writeNext() throws IOException {
+        Entry entry;
+        try {
+            entry = pending.poll().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+        long start = instrumentation.isEnabled() ? System.nanoTime() : 0;
+        entry.offset = out.count;
+        entry.time = entryTime;
+        writeLocalHeader(entry);
+        out.write(entry.data, 0, (int) entry.compressedSize);
+        entry.data = null;
+        written.add(entry);
+        if (instrumentation.isEnabled())
+            record(entry, entry.nanos + System.nanoTime() - start);
+    }
+
+    /**
+     * Copy an entry of another archive as is, without inflating nor compressing it again.
+     *
+     * @param source archive the entry comes from
+     * @param raw    entry as listed in its central directory
+     * @throws IOException when the name is taken already or a previous entry failed
+     */
+    void copy(FileChannel source, ZipDirectory.Entry raw) throws IOException {
+        checkName(raw.name);
+        if (raw.size >= ZIP32_LIMIT || raw.compressedSize >= ZIP32_LIMIT)
+            throw new ZipException("Entry " + raw.name + " is larger than 4GB");
+        while (!pending.isEmpty())
+            writeNext();
+        long startNanos = instrumentation.isEnabled() ? System.nanoTime() : 0;
+        Entry entry = new Entry();
+        entry.name = raw.name.getBytes(StandardCharsets.UTF_8);
+        entry.method = raw.method;
+        // sizes and CRC go in the local header, no data descriptor follows the copy
+        entry.flags = raw.flags & ~(DATA_DESCRIPTOR_FLAG | UTF8_FLAG);
+        entry.time = raw.time;
+        entry.crc = raw.crc;
+        entry.size = raw.size;
+        entry.compressedSize = raw.compressedSize;
+        entry.offset = out.count;
+        writeLocalHeader(entry);
+
+        long position = ZipDirectory.dataOffset(source, raw);
+        long remaining = raw.compressedSize;
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(64 * 1024, Math.max(1, remaining)));
+        while (remaining > 0) {
+            buffer.clear();
+            if (remaining < buffer.capacity())
+                buffer.limit((int) remaining);
+            int read = source.read(buffer, position);
+            if (read < 0)
+                throw new ZipException("Unexpected end of " + raw.name);
+            out.write(buffer.array(), 0, read);
+            position += read;
+            remaining -= read;
+        }
+        written.add(entry);
+        if (instrumentation.isEnabled())
+            record(entry, System.nanoTime() - startNanos);
+    }
+
+    private void record(Entry entry, long nanos) {
+        instrumentation.time(Metrics.JAR_ENTRY, nanos);
+        instrumentation.count(Metrics.JAR_BYTES_UNCOMPRESSED, entry.size);
+        instrumentation.count(Metrics.JAR_BYTES_COMPRESSED, entry.compressedSize);
+    }
+
+    private void writeStreamed(String name, Resource resource) throws IOException {
+        long startNanos = instrumentation.isEnabled() ? System.nanoTime() : 0;
+        Entry entry = new Entry();
+        entry.name = name.getBytes(StandardCharsets.UTF_8);
+        entry.offset = out.count;
+        entry.time = entryTime;
+        long size = resource.getSize();
+        OutputStream target = new FilterOutputStream(out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        if (policy.methodFor(name) == CompressionPolicy.STORED && size >= 0) {
+            if (size >= ZIP32_LIMIT)
+                throw new ZipException("Entry " + name + " is larger than 4GB");
+            // stored entries need their CRC upfront, read the content twice rather than buffering it
+            CRC32 crc = new CRC32();
+            resource.writeTo(new CheckedOutputStream(new NullOutputStream(), crc));
+            entry.method = CompressionPolicy.STORED;
+            entry.crc = crc.getValue();
+            entry.size = size;
+            entry.compressedSize = size;
+            writeLocalHeader(entry);
+            long start = out.count;
+            resource.writeTo(target);
+            if (out.count - start != size)
+                throw new ZipException("Content of " + name + " changed while being written");
+        } else {
+            entry.method = CompressionPolicy.DEFLATED;
+            entry.flags = DATA_DESCRIPTOR_FLAG;
+            writeLocalHeader(entry);
+            long start = out.count;
+            CRC32 crc = new CRC32();
+            int level = policy.methodFor(name) == CompressionPolicy.STORED ? Deflater.NO_COMPRESSION : policy.levelFor(name);
+            Deflater deflater = new Deflater(level, true);
+            try {
+                DeflaterOutputStream deflated = new DeflaterOutputStream(target, deflater, 64 * 1024);
+                CheckedOutputStream checked = new CheckedOutputStream(deflated, crc);
+                resource.writeTo(checked);
+                deflated.finish();
+                entry.size = deflater.getBytesRead();
+            } finally {
+                deflater.end();
+            }
+            entry.crc = crc.getValue();
+            entry.compressedSize = out.count - start;
+            if (entry.size >= ZIP32_LIMIT || entry.compressedSize >= ZIP32_LIMIT)
+                throw new ZipException("Entry " + name + " is larger than 4GB");
+            writeInt(DATA_DESCRIPTOR);
+            writeInt(entry.crc);
+            writeInt(entry.compressedSize);
+            writeInt(entry.size);
+        }
+        written.add(entry);
+        if (instrumentation.isEnabled())
+            record(entry, System.nanoTime() - startNanos);
+    }
+
+    private void writeLocalHeader(Entry entry) throws IOException {
+        boolean descriptor = (entry.flags & DATA_DESCRIPTOR_FLAG) != 0;
+        writeInt(LOCAL_HEADER);
+        writeShort(entry.versionNeeded());
+        writeShort(UTF8_FLAG | entry.flags);
+        writeShort(entry.method);
+        writeInt(entry.time);
+        writeInt(descriptor ? 0 : entry.crc);
+        writeInt(descriptor ? 0 : entry.compressedSize);
+        writeInt(descriptor ? 0 : entry.size);
+        writeShort(entry.name.length);
+        writeShort(0);
+        out.write(entry.name);
+    }
+
+    private void writeCentralDirectory() throws IOException {
+        long start = out.count;
+        for (Entry entry : written) {
+            boolean zip64 = entry.offset >= ZIP32_LIMIT;
+            writeInt(CENTRAL_HEADER);
+            writeShort(zip64 ? 45 : 20);
+            writeShort(zip64 ? 45 : entry.versionNeeded());
+            writeShort(UTF8_FLAG | entry.flags);
+            writeShort(entry.method);
+            writeInt(entry.time);
+            writeInt(entry.crc);
+            writeInt(entry.compressedSize);
+            writeInt(entry.size);
+            writeShort(entry.name.length);
+            writeShort(zip64 ? 12 : 0);
+            writeShort(0);
+            writeShort(0);
+            writeShort(0);
+            writeInt(0);
+            writeInt(zip64 ? ZIP32_LIMIT : entry.offset);
+            out.write(entry.name);
+            if (zip64) {
+                writeShort(0x0001);
+                writeShort(8);
+                writeLong(entry.offset);
+            }
+        }
+        long end = out.count;
+        long size = end - start;
+        int count = written.size();
+
+        boolean zip64 = count >= 0xFFFF || start >= ZIP32_LIMIT || size >= ZIP32_LIMIT;
+        if (zip64) {
+            writeInt(ZIP64_END_OF_CENTRAL_DIRECTORY);
+            writeLong(44);
+            writeShort(45);
+            writeShort(45);
+            writeInt(0);
+            writeInt(0);
+            writeLong(count);
+            writeLong(count);
+            writeLong(size);
+            writeLong(start);
+            writeInt(ZIP64_LOCATOR);
+            writeInt(0);
+            writeLong(end);
+            writeInt(1);
+        }
+        writeInt(END_OF_CENTRAL_DIRECTORY);
+        writeShort(0);
+        writeShort(0);
+        writeShort(zip64 ? 0xFFFF : count);
+        writeShort(zip64 ? 0xFFFF : count);
+        writeInt(zip64 ? ZIP32_LIMIT : size);
+        writeInt(zip64 ? ZIP32_LIMIT : start);
+        writeShort(0);
+        out.flush();
+    }
+
+    private void writeShort(int v) throws IOException {
+        out.write(v & 0xFF);
+        out.write((v >>> 8) & 0xFF);
+    }
+
+    private void writeInt(long v) throws IOException {
+        writeShort((int) (v & 0xFFFF));
+        writeShort((int) ((v >>> 16) & 0xFFFF));
+    }
+
+    private void writeLong(long v) throws IOException {
+        writeInt(v & ZIP32_LIMIT);
+        writeInt(v >>> 32);
+    }
+
+    static long dosTime(long millis) {
+        return dosTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault()));
+    }
+
+    static long dosTime(LocalDateTime date) {
+        if (date.getYear() < 1980)
+            return (1 << 21) | (1 << 16);
+        return (long) (date.getYear() - 1980) << 25 | date.getMonthValue() << 21 | date.getDayOfMonth() << 16
+                | date.getHour() << 11 | date.getMinute() << 5 | date.getSecond() >> 1;
+    }
+
+    /**
+     * A compressed entry waiting to be written.
+     */
+    private static final class Entry {
+        private byte[] name;
+        private int method;
+        private int flags;
+        private long crc;
+        private long size;
+        private byte[] data;
+        private long compressedSize;
+        private long offset;
+        private long time;
+        private long nanos;
+
+        static Entry compress(String name, byte[] content, CompressionPolicy policy) {
+            Entry entry = new Entry();
+            entry.name = name.getBytes(StandardCharsets.UTF_8);
+            entry.size = content.length;
+            CRC32 crc = new CRC32();
+            crc.update(content, 0, content.length);
+            entry.crc = crc.getValue();
+
+            if (policy.methodFor(name) == CompressionPolicy.DEFLATED && content.length > 0) {
+                Deflater deflater = new Deflater(policy.levelFor(name), true);
+                try {
+                    deflater.setInput(content);
+                    deflater.finish();
+                    // give up as soon as the deflated data gets larger than the content
+                    byte[] buffer = new byte[content.length];
+                    int length = 0;
+                    while (!deflater.finished() && length < buffer.length)
+                        length += deflater.deflate(buffer, length, buffer.length - length);
+                    if (deflater.finished() && length < content.length) {
+                        entry.method = CompressionPolicy.DEFLATED;
+                        entry.data = buffer;
+                        entry.compressedSize = length;
+                        return entry;
+                    }
+                } finally {
+                    deflater.end();
+                }
+            }
+            entry.method = CompressionPolicy.STORED;
+            entry.data = content;
+            entry.compressedSize = content.length;
+            return entry;
+        }
+
+        int versionNeeded() {
+            return method == CompressionPolicy.DEFLATED ? 20 : 10;
+        }
+    }
+
+    private static final class NullOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.tifires.genesis.packager.pack;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded executor running packs in the background.
+ * <p>
+ * At most {@code maxConcurrent} packs run at once and at most {@code maxQueued} more wait for their turn.
+ * A pack submitted beyond that is not queued: its future fails right away with a
+ * {@link RejectedExecutionException}, so callers can shed load instead of piling up work. Packs run on
+ * virtual threads on JDK 21 and later, on a fixed pool of daemon threads otherwise.
+ * <p>
+ * Cancelling a future, or its timeout expiring, interrupts the pack and runs its cancellation hooks (e.g.
+ * cancels the gradle build). A javac compilation already started is not interruptible, its result is
+ * discarded.
+ */
+public class PackExecutor implements AutoCloseable {
+    private final static Logger LOG = LoggerFactory.getLogger(PackExecutor.class);
+    private static volatile PackExecutor defaultExecutor;
+
+    private final ExecutorService executor;
+    private final ScheduledExecutorService timer;
+    private final int capacity;
+    private final Semaphore admitted;
+    private final Semaphore running;
+
+    public static PackExecutor newInstance() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        return newInstance(processors, 16 * processors);
+    }
+
+    /**
+     * @param maxConcurrent packs running at once
+     * @param maxQueued     packs waiting for a free slot before new ones are rejected
+     * @return
+     */
+    public static PackExecutor newInstance(int maxConcurrent, int maxQueued) {
+        return new PackExecutor(maxConcurrent, maxQueued);
+    }
+
+    /**
+     * @return executor shared by the whole JVM
+     */
+    public static PackExecutor getDefault() {
+        if (defaultExecutor == null) {
+            synchronized (PackExecutor.class) {
+                if (defaultExecutor == null)
+                    defaultExecutor = newInstance();
+            }
+        }
+        return defaultExecutor;
+    }
+
+    private PackExecutor(int maxConcurrent, int maxQueued) {
+        if (maxConcurrent < 1 || maxQueued < 0)
+            throw new IllegalArgumentException("maxConcurrent must be positive and maxQueued not negative");
+        this.capacity = maxConcurrent + maxQueued;
+        this.admitted = new Semaphore(capacity);
+        this.running = new Semaphore(maxConcurrent);
+        ExecutorService virtualThreads = newVirtualThreadExecutor();
+        this.executor = virtualThreads != null ? virtualThreads
+                : Executors.newFixedThreadPool(maxConcurrent, daemonThreads("genesis-pack"));
+        this.timer = Executors.newSingleThreadScheduledExecutor(daemonThreads("genesis-pack-timer"));
+    }
+
+    /**
+     * Run the given pack in the background.
+     *
+     * @param pack
+     * @param timeout time after which the pack is cancelled and its future fails with a
+     *                {@link TimeoutException}, 0 for none
+     * @param unit
+     * @param onCancel run when the pack is cancelled or times out, may be null
+     * @return
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> pack, long timeout, TimeUnit unit, Runnable onCancel) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        if (!admitted.tryAcquire()) {
+            result.completeExceptionally(new RejectedExecutionException("Too many packs pending"));
+            return result;
+        }
+        AtomicBoolean started = new AtomicBoolean();
+        AtomicBoolean released = new AtomicBoolean();
+        Runnable release = () -> {
+            if (released.compareAndSet(false, true))
+                admitted.release();
+        };
+        AtomicBoolean cancelled = new AtomicBoolean();
+        Future<?> task;
+        try {
+            task = executor.submit(() -> {
+                started.set(true);
+                try {
+                    running.acquire();
+                } catch (InterruptedException e) {
+                    release.run();
+                    if (!cancelled.get())
+                        result.completeExceptionally(e);
+                    return;
+                }
+                try {
+                    if (!result.isDone()) {
+                        T value = pack.call();
+                        if (!cancelled.get())
+                            result.complete(value);
+                    }
+                } catch (Throwable e) {
+                    // once cancelled, the future fails with the cancellation rather than the interruption
+                    if (!cancelled.get())
+                        result.completeExceptionally(e);
+                } finally {
+                    running.release();
+                    release.run();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            release.run();
+            result.completeExceptionally(e);
+            return result;
+        }
+
+        Runnable cancel = () -> {
+            if (!cancelled.compareAndSet(false, true))
+                return;
+            // a pack cancelled before it started never gives its slot back by itself
+            if (task.cancel(true) && !started.get())
+                release.run();
+            if (onCancel != null) {
+                try {
+                    onCancel.run();
+                } catch (RuntimeException e) {
+                    LOG.error(e.getMessage(), e);
+                }
+            }
+        };
+        if (timeout > 0) {
+            // hooks run before the future fails, so that callers see the pack cancelled already
+            ScheduledFuture<?> timeoutTask = timer.schedule(() -> {
+                if (result.isDone())
+                    return;
+                cancel.run();
+                result.completeExceptionally(new TimeoutException("Pack timed out after " + timeout + " " + unit));
+            }, timeout, unit);
+            result.whenComplete((value, error) -> timeoutTask.cancel(false));
+        }
+        result.whenComplete((value, error) -> {
+            if (error instanceof CancellationException || error instanceof TimeoutException)
+                cancel.run();
+        });
+        return result;
+    }
+
+    /**
+     * @return packs running or waiting
+     */
+    public int getPending() {
+        return capacity - admitted.availablePermits();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        timer.shutdownNow();
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            // JDK 21+, looked up reflectively to keep the code compatible with java 8
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
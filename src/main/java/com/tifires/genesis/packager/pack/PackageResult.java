@@ -0,0 +1,51 @@
+package com.tifires.genesis.packager.pack;
+
+import java.nio.file.Path;
+
+/**
+ * Outcome of one artifact of a batch: the jar, or why it could not be packed.
+ */
+public class PackageResult {
+    private final String id;
+    private final Path output;
+    private final byte[] content;
+    private final Throwable error;
+
+    PackageResult(String id, Path output, byte[] content, Throwable error) {
+        this.id = id;
+        this.output = output;
+        this.content = content;
+        this.error = error;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    /**
+     * @return the jar file, null when packed in memory or failed
+     */
+    public Path getOutput() {
+        return output;
+    }
+
+    /**
+     * @return the jar, when packed in memory
+     */
+    public byte[] getContent() {
+        return content;
+    }
+
+    public Throwable getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return id + (isSuccess() ? " packed" : " failed: " + error.getMessage());
+    }
+}
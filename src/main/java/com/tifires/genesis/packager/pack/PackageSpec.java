@@ -0,0 +1,76 @@
+package com.tifires.genesis.packager.pack;
+
+import com.tifires.genesis.packager.commons.Resource;
+
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * One artifact of a {@link BatchPackager}: its own sources and resources, and where the jar goes.
+ */
+public class PackageSpec {
+    private final String id;
+    private final Map<String, String> sources = new LinkedHashMap<>();
+    private final Map<String, Set<Resource>> resources = new LinkedHashMap<>();
+    private String version = "1.0.0";
+    private Path output;
+
+    /**
+     * @param id identifies the artifact in the batch results, e.g. the tenant
+     * @return
+     */
+    public static PackageSpec newInstance(String id) {
+        return new PackageSpec(id);
+    }
+
+    private PackageSpec(String id) {
+        this.id = Objects.requireNonNull(id);
+    }
+
+    public PackageSpec addSource(String className, String content) {
+        sources.put(Objects.requireNonNull(className), Objects.requireNonNull(content));
+        return this;
+    }
+
+    public PackageSpec addResources(String location, Resource... resources) {
+        this.resources.computeIfAbsent(location, k -> new LinkedHashSet<>()).addAll(Arrays.asList(resources));
+        return this;
+    }
+
+    public PackageSpec useVersion(String version) {
+        this.version = Objects.requireNonNull(version);
+        return this;
+    }
+
+    /**
+     * @param output jar file to write, the jar is kept in memory when not set
+     * @return
+     */
+    public PackageSpec useOutput(Path output) {
+        this.output = output;
+        return this;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return source content by class name
+     */
+    public Map<String, String> getSources() {
+        return Collections.unmodifiableMap(sources);
+    }
+
+    public Map<String, Set<Resource>> getResources() {
+        return Collections.unmodifiableMap(resources);
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public Path getOutput() {
+        return output;
+    }
+}
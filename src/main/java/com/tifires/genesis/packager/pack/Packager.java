@@ -1,26 +1,35 @@
 package com.tifires.genesis.packager.pack;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.tifires.genesis.packager.commons.CompiledCode;
 import com.tifires.genesis.packager.commons.Resource;
 import com.tifires.genesis.packager.commons.SourceCode;
 import com.tifires.genesis.packager.compile.Compiler;
+import com.tifires.genesis.packager.gradle.BuildGradleModel;
+import com.tifires.genesis.packager.gradle.GradleConnectionPool;
 import com.tifires.genesis.packager.gradle.Gradler;
+import com.tifires.genesis.packager.metrics.Instrumentation;
+import com.tifires.genesis.packager.metrics.Metrics;
+import com.tifires.genesis.stuffs.Utils;
+import org.gradle.tooling.CancellationTokenSource;
+import org.gradle.tooling.GradleConnector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.OutputStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.*;
+import java.security.MessageDigest;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 import java.util.jar.Attributes;
-import java.util.jar.JarEntry;
-import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
+import java.util.zip.CRC32;
 
 public class Packager {
     private final static Logger LOG = LoggerFactory.getLogger(Packager.class);
@@ -30,8 +39,30 @@ public class Packager {
     private Map<String, Set<Resource>> mResources = new HashMap<>();
     private String version = "1.0.0";
     private String author = "tifires.com";
-    private ObjectMapper mapper = new ObjectMapper();
-    private JarOutputStream jos = null;
+    private CompressionPolicy compression = CompressionPolicy.newInstance();
+    private ExecutorService executor = ForkJoinPool.commonPool();
+    private JarWriter jar = null;
+    // set explicitly, otherwise the default pool for a fixed location and none for a temporary one
+    private GradleConnectionPool gradleConnections;
+    private boolean gradleConnectionsSet = false;
+    private boolean fixedLocation = false;
+    private boolean incrementalGradle = false;
+    private BuildGradleModel buildModel = BuildGradleModel.defaults();
+    private OutputStream gradleOut = System.out;
+    private OutputStream gradleErr = System.err;
+    private PackExecutor packExecutor = PackExecutor.getDefault();
+    private long timeoutMillis = 0;
+    private Instrumentation instrumentation = Instrumentation.NOOP;
+    private boolean reproducible = false;
+    private ArtifactStore artifactStore;
+    // entries of a reproducible or updated jar, written once all are known
+    private Map<String, Resource> deferred;
+    // jar being updated and its entries
+    private FileChannel previousJar;
+    private Map<String, ZipDirectory.Entry> previousEntries;
+    private int copiedEntries;
+    // first entry which could not be written, the jar is incomplete
+    private IOException entryFailure;
 
 
     public static Packager newInstance() {
@@ -39,31 +70,234 @@ public class Packager {
     }
 
     public Packager() {
-        try {
-            pjLoc = Files.createTempDirectory("genesis");
-        } catch (IOException e) {
-            LOG.error(e.getMessage(), e);
-        }
         compiler = Compiler.newInstance();
     }
 
+    /**
+     * @return the project directory, a temporary one is created on first use
+     */
+    private Path projectLocation() {
+        if (pjLoc == null) {
+            try {
+                pjLoc = Files.createTempDirectory("genesis");
+            } catch (IOException e) {
+                LOG.error(e.getMessage(), e);
+            }
+        }
+        return pjLoc;
+    }
+
     public Packager setFilename(String filename) {
         return setLocation(null, filename);
     }
 
     public Packager setLocation(Path location, String filename) {
-        if (location != null)
+        if (location != null) {
             pjLoc = location;
+            fixedLocation = true;
+        }
         if (!filename.endsWith(".jar"))
             filename = filename.concat(".jar");
         try {
-            name = Files.createFile(Paths.get(pjLoc.toString(), filename));
+            name = Files.createFile(Paths.get(projectLocation().toString(), filename));
         } catch (IOException e) {
             LOG.error(e.getMessage(), e);
         }
         return this;
     }
 
+    /**
+     * Compression method and level of the jar entries, per resource type.
+     *
+     * @param compression
+     * @return
+     */
+    public Packager useCompression(CompressionPolicy compression) {
+        this.compression = Objects.requireNonNull(compression);
+        return this;
+    }
+
+    /**
+     * Workers deflating the jar entries in parallel, the common fork-join pool by default.
+     *
+     * @param executor null to deflate on the packing thread
+     * @return
+     */
+    public Packager useExecutor(ExecutorService executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Gradle connections reused by {@link #pack(boolean, boolean)} with gradle. Connections are kept per
+     * project directory, so by default the pool shared by the whole JVM is only used when the location is
+     * set explicitly: a temporary project directory is never built twice.
+     *
+     * @param gradleConnections null to open a new connection per build
+     * @return
+     */
+    public Packager useGradleConnections(GradleConnectionPool gradleConnections) {
+        this.gradleConnections = gradleConnections;
+        this.gradleConnectionsSet = true;
+        return this;
+    }
+
+    /**
+     * Keep the gradle project between packs and only rebuild what changed, see
+     * {@link Gradler#useIncremental(boolean)}. Only useful with a fixed location.
+     *
+     * @param incrementalGradle
+     * @return
+     */
+    public Packager useIncrementalGradle(boolean incrementalGradle) {
+        this.incrementalGradle = incrementalGradle;
+        return this;
+    }
+
+    /**
+     * Content of the build.gradle generated when packing with gradle.
+     *
+     * @param buildModel
+     * @return
+     */
+    public Packager useBuildModel(BuildGradleModel buildModel) {
+        this.buildModel = Objects.requireNonNull(buildModel);
+        return this;
+    }
+
+    /**
+     * Streams receiving the gradle build output, System.out and System.err by default.
+     *
+     * @param out may be null to discard the output
+     * @param err may be null to discard the errors
+     * @return
+     */
+    public Packager useGradleOutput(OutputStream out, OutputStream err) {
+        this.gradleOut = out;
+        this.gradleErr = err;
+        return this;
+    }
+
+    /**
+     * Executor running the asynchronous packs, the one shared by the whole JVM by default.
+     *
+     * @param packExecutor
+     * @return
+     */
+    public Packager usePackExecutor(PackExecutor packExecutor) {
+        this.packExecutor = Objects.requireNonNull(packExecutor);
+        return this;
+    }
+
+    /**
+     * Time after which an asynchronous pack is cancelled, none by default.
+     *
+     * @param timeout 0 for none
+     * @param unit
+     * @return
+     */
+    public Packager useTimeout(long timeout, TimeUnit unit) {
+        this.timeoutMillis = unit.toMillis(timeout);
+        return this;
+    }
+
+    /**
+     * Report compilation, jar and gradle metrics, and the time of every pack, to the given instrumentation.
+     *
+     * @param instrumentation
+     * @return
+     */
+    public Packager useInstrumentation(Instrumentation instrumentation) {
+        this.instrumentation = Objects.requireNonNull(instrumentation);
+        compiler.useInstrumentation(instrumentation);
+        return this;
+    }
+
+    /**
+     * Pack byte-identical jars from identical inputs: entries sorted by name, every entry dated
+     * {@link JarWriter#REPRODUCIBLE_TIME} and manifest attributes sorted. Gradle builds are not affected.
+     *
+     * @param reproducible
+     * @return
+     */
+    public Packager useReproducible(boolean reproducible) {
+        this.reproducible = reproducible;
+        return this;
+    }
+
+    /**
+     * Look the jar up in the given store by the hash of the inputs before packing in memory, and return it
+     * without compiling nor writing anything when found. Jars packed otherwise are moved to the store, and
+     * {@link #getLocation()} is then their location in the store.
+     *
+     * @param artifactStore null for none
+     * @return
+     * @see #getInputHash(boolean)
+     */
+    public Packager useArtifactStore(ArtifactStore artifactStore) {
+        this.artifactStore = artifactStore;
+        return this;
+    }
+
+    /**
+     * Hash of everything the packed jar depends on: sources, resources, manifest values, compression and
+     * the compilation key, which covers the compiler options and profile, the classpath and parent class
+     * loader the sources compile against and the java version, see {@link Compiler#getCompilationKey()}.
+     *
+     * @param withSources
+     * @return hex encoded sha-256
+     * @throws IOException when a resource cannot be read
+     */
+    public String getInputHash(boolean withSources) throws IOException {
+        MessageDigest digest = Utils.sha256();
+        DataOutputStream out = new DataOutputStream(digesting(digest));
+        out.writeUTF("genesis-pack-2");
+        out.writeUTF(version);
+        out.writeUTF(author);
+        out.writeBoolean(withSources);
+        out.writeBoolean(reproducible);
+        out.writeUTF(compression.toString());
+        out.writeUTF(compiler.getCompilationKey());
+        List<SourceCode> sources = compiler.getSources();
+        sources.sort(Comparator.comparing(SourceCode::getClassName));
+        for (SourceCode source : sources) {
+            out.writeUTF(source.getClassName());
+            byte[] content = source.getContentAsBytes();
+            out.writeInt(content.length);
+            out.write(content);
+        }
+        for (Map.Entry<String, Resource> resource : sortedResources().entrySet()) {
+            out.writeUTF(resource.getKey());
+            // hashed apart, so that contents of unknown size cannot run into the next entry
+            MessageDigest content = Utils.sha256();
+            resource.getValue().writeTo(digesting(content));
+            out.write(content.digest());
+        }
+        out.flush();
+        return Utils.toHex(digest.digest());
+    }
+
+    private static OutputStream digesting(MessageDigest digest) {
+        return new OutputStream() {
+            @Override
+            public void write(int b) {
+                digest.update((byte) b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                digest.update(b, off, len);
+            }
+        };
+    }
+
+    private SortedMap<String, Resource> sortedResources() {
+        SortedMap<String, Resource> sorted = new TreeMap<>();
+        mResources.forEach((location, resources) -> resources.forEach(resource ->
+                sorted.put(entryName(location, resource), resource)));
+        return sorted;
+    }
+
     public Packager addSource(String classname, String content) {
         try {
             compiler.addSource(classname, content);
@@ -94,99 +328,375 @@ public class Packager {
         return useGradle ? this.packWithGradle(withSources) : this.packInMemory(withSources);
     }
 
+    /**
+     * Pack in the background on the pack executor. Cancelling the future, or its timeout, cancels the gradle
+     * build. The packager must not be used until the future completes.
+     *
+     * @param withSources
+     * @param useGradle
+     * @return the jar location, fails with the compilation or build error
+     */
+    public CompletableFuture<Path> packAsync(boolean withSources, boolean useGradle) {
+        if (!useGradle) {
+            return packExecutor.submit(() -> {
+                packToFile(withSources);
+                return producedJar();
+            }, timeoutMillis, TimeUnit.MILLISECONDS, null);
+        }
+        // the tooling API is only loaded for gradle builds
+        CancellationTokenSource cancellation = GradleConnector.newCancellationTokenSource();
+        return packExecutor.submit(() -> {
+            packWithGradle(withSources, cancellation);
+            return producedJar();
+        }, timeoutMillis, TimeUnit.MILLISECONDS, cancellation::cancel);
+    }
+
+    private Path producedJar() throws IOException {
+        if (name == null || !Files.exists(name))
+            throw new IOException("No jar was produced in " + pjLoc);
+        return name;
+    }
+
+    /**
+     * Pack in memory in the background on the pack executor.
+     *
+     * @param withSources
+     * @return the jar content, fails with the compilation error
+     */
+    public CompletableFuture<byte[]> packToBytesAsync(boolean withSources) {
+        return packExecutor.submit(() -> {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            writeJar(out, withSources);
+            return out.toByteArray();
+        }, timeoutMillis, TimeUnit.MILLISECONDS, null);
+    }
+
     private Packager packWithGradle(boolean withSources) {
-        Gradler gradler = Gradler.newInstance();
-        gradler.setLocation(pjLoc);
+        return packWithGradle(withSources, null);
+    }
+
+    private Packager packWithGradle(boolean withSources, CancellationTokenSource cancellation) {
+        GradleConnectionPool connections = gradleConnectionsSet ? gradleConnections
+                : fixedLocation ? GradleConnectionPool.getDefault() : null;
+        Gradler gradler = Gradler.newInstance().useConnectionPool(connections)
+                .useIncremental(incrementalGradle).useBuildModel(buildModel)
+                .useOutput(gradleOut, gradleErr).useInstrumentation(instrumentation);
+        if (cancellation != null)
+            gradler.useCancellationToken(cancellation.token());
+        gradler.setLocation(projectLocation());
         gradler.init();
         mResources.forEach(gradler::pushResources);
         compiler.getSources().forEach(gradler::pushSource);
+        long start = instrumentation.isEnabled() ? System.nanoTime() : 0;
         gradler.pack();
+        if (instrumentation.isEnabled())
+            instrumentation.time(Metrics.PACK, System.nanoTime() - start);
         name = Paths.get(pjLoc.toString(),"build","libs",pjLoc.getFileName().toString().concat(".jar"));
         return this;
     }
 
+    /**
+     * Pack the jar straight into the given stream, without touching the disk. The stream is flushed but
+     * left open.
+     *
+     * @param out
+     * @param withSources
+     * @return
+     * @throws IOException
+     */
+    public Packager packTo(OutputStream out, boolean withSources) throws IOException {
+        writeJar(new NonClosingOutputStream(Objects.requireNonNull(out)), withSources);
+        return this;
+    }
+
+    /**
+     * Pack the jar straight into the given channel, without touching the disk. The channel is left open.
+     *
+     * @param channel
+     * @param withSources
+     * @return
+     * @throws IOException
+     */
+    public Packager packTo(WritableByteChannel channel, boolean withSources) throws IOException {
+        return packTo(Channels.newOutputStream(Objects.requireNonNull(channel)), withSources);
+    }
+
+    /**
+     * Pack the jar in memory.
+     *
+     * @param withSources
+     * @return the jar, ready to be read
+     * @throws IOException
+     */
+    public ByteBuffer packToBuffer(boolean withSources) throws IOException {
+        return packToBuffer(new ByteBufferOutputStream(), withSources);
+    }
+
+    /**
+     * Pack the jar into the given growable buffer.
+     *
+     * @param buffer
+     * @param withSources
+     * @return the jar, ready to be read
+     * @throws IOException
+     */
+    public ByteBuffer packToBuffer(ByteBufferOutputStream buffer, boolean withSources) throws IOException {
+        writeJar(buffer, withSources);
+        return buffer.getBuffer();
+    }
+
+    /**
+     * Pack the jar in memory and serve it from there, without touching the disk.
+     *
+     * @param parent parent of the returned class loader
+     * @return class loader over the packed classes and resources
+     * @throws IOException
+     */
+    public InMemoryJarClassLoader packToClassLoader(ClassLoader parent) throws IOException {
+        return InMemoryJarClassLoader.of(packToBuffer(false), parent);
+    }
+
     private Packager packInMemory(boolean withSources) {
+        try {
+            packToFile(withSources);
+        } catch (IOException e) {
+            LOG.error(e.getMessage(), e);
+        }
+        return this;
+    }
+
+    private void packToFile(boolean withSources) throws IOException {
+        String inputHash = null;
+        if (artifactStore != null) {
+            inputHash = getInputHash(withSources);
+            Path stored = artifactStore.get(inputHash);
+            if (stored != null) {
+                LOG.debug("Jar {} found in the artifact store", inputHash);
+                name = stored;
+                return;
+            }
+        }
+        //create required jar name
+        try {
+            writeJar(newJarFile(), withSources);
+        } catch (IOException | RuntimeException e) {
+            // an incomplete jar is neither returned nor stored
+            if (name != null)
+                Files.deleteIfExists(name);
+            name = null;
+            throw e;
+        }
+        if (inputHash != null)
+            name = artifactStore.put(inputHash, name);
+    }
+
+    private OutputStream newJarFile() throws IOException {
+        name = Files.createTempFile(projectLocation(), "pack", ".jar");
+        return new FileOutputStream(name.toFile());
+    }
+
+    /**
+     * Pack again into a jar packed before, only compressing the entries added or changed since: unchanged
+     * entries, found by size and CRC, are copied raw from the previous jar. Sources are compiled again. The
+     * jar is replaced atomically once the new one is complete, and left as it was if any entry fails.
+     * <p>
+     * The jar must be a private copy: jars of an {@link ArtifactStore} are keyed by their content and must
+     * never be updated in place.
+     *
+     * @param jar
+     * @param withSources
+     * @return
+     * @throws IOException
+     * @throws IllegalArgumentException when the jar belongs to the artifact store of this packager
+     */
+    public Packager update(Path jar, boolean withSources) throws IOException {
+        if (artifactStore != null && artifactStore.contains(jar))
+            throw new IllegalArgumentException("Jar " + jar + " belongs to the artifact store, update a copy of it");
+        Path temp = Files.createTempFile(jar.toAbsolutePath().getParent(), jar.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel previous = FileChannel.open(jar, StandardOpenOption.READ)) {
+                writeJar(Files.newOutputStream(temp), withSources, previous);
+            }
+            try {
+                Files.move(temp, jar, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, jar, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        name = jar;
+        return this;
+    }
+
+    private void writeJar(OutputStream os, boolean withSources) throws IOException {
+        writeJar(os, withSources, null);
+    }
+
+    private void writeJar(OutputStream os, boolean withSources, FileChannel previous) throws IOException {
         //prepare Manifest file
         Manifest manifest = new Manifest();
         Attributes global = manifest.getMainAttributes();
         global.put(Attributes.Name.MANIFEST_VERSION, version);
         global.put(new Attributes.Name("Created-By"), author);
 
-        //create required jar name
+        long start = instrumentation.isEnabled() ? System.nanoTime() : 0;
         try {
-            name = Files.createTempFile(pjLoc, "pack", ".jar");
-            File jarFile = name.toFile();
-            OutputStream os = new FileOutputStream(jarFile);
-            jos = new JarOutputStream(os, manifest);
-        } catch (IOException e) {
-            LOG.error(e.getMessage(), e);
-            return null;
+            jar = new JarWriter(os, reproducible ? sorted(manifest) : manifest, compression, executor).useInstrumentation(instrumentation);
+        } catch (IOException | RuntimeException e) {
+            // the writer only owns the stream once created, it failed writing the manifest
+            try {
+                os.close();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
         }
+        if (reproducible)
+            jar.useTimestamp(JarWriter.REPRODUCIBLE_TIME);
+        if (reproducible || previous != null)
+            deferred = reproducible ? new TreeMap<>() : new LinkedHashMap<>();
+        entryFailure = null;
+        try {
+            if (previous != null) {
+                previousJar = previous;
+                previousEntries = ZipDirectory.read(previous);
+                copiedEntries = 0;
+            }
 
-        //resources
-        mResources.forEach(this::pushResources);
+            //resources
+            mResources.forEach(this::pushResources);
 
-        //compile
-        compiler.compileAll();
+            //compile, classes are never loaded: entries are named after the binary names javac emits
+            Map<String, CompiledCode> compiledCodes = compiler.compileToBytecode();
+            compiledCodes.forEach(this::pushCompiledCode);
 
-        //get sources & compiled sources
-        if (withSources)
-            compiler.getResources().forEach(this::pushCompiledSrcWthSrc);
-        else
-            compiler.getResources().forEach(this::pushCompiledSrc);
+            //sources
+            if (withSources)
+                compiler.getSources().forEach(this::pushSource);
 
-        //close archive
-        try {
-            jos.close();
-        } catch (IOException e) {
-            LOG.error(e.getMessage(), e);
+            if (deferred != null)
+                deferred.forEach(this::writeEntry);
+            if (previous != null)
+                LOG.debug("Jar updated, {} entries copied and {} written", copiedEntries, deferred.size() - copiedEntries);
+        } finally {
+            deferred = null;
+            previousJar = null;
+            previousEntries = null;
+            //close archive
+            jar.close();
         }
-        return this;
+        if (entryFailure != null) {
+            IOException failure = entryFailure;
+            entryFailure = null;
+            throw failure;
+        }
+        if (instrumentation.isEnabled())
+            instrumentation.time(Metrics.PACK, System.nanoTime() - start);
     }
 
-    private void pushCompiledSrc(SourceCode sourceCode, CompiledCode compiledCode) {
-        Objects.requireNonNull(compiledCode);
+    private void pushCompiledCode(String binaryName, CompiledCode compiledCode) {
+        pushEntry(binaryName.replace('.', '/') + ".class", compiledCode.getByteCode());
+    }
 
+    private void pushSource(SourceCode sourceCode) {
+        pushEntry(sourceCode.getClassName().replace('.', '/') + ".java", sourceCode.getContentAsBytes());
+    }
+
+    private void pushEntry(String name, byte[] content) {
+        if (deferred != null) {
+            defer(name, new Resource(name, content));
+            return;
+        }
         try {
-            Class<?> tClass = compiler.getClassForSrc(compiledCode);
-            String packagename = tClass.getName().substring(0, tClass.getName().lastIndexOf('.'));
-            String filename = tClass.getName().substring(tClass.getName().lastIndexOf('.') + 1).concat(".class");
-            Resource resource = new Resource(filename, compiledCode.getByteCode());
-            pushResource(packagename, resource);
-        } catch (ClassNotFoundException e) {
-            LOG.error(e.getMessage(), e);
+            jar.write(name, content);
+        } catch (IOException e) {
+            failed(e);
         }
     }
 
-    private void pushCompiledSrcWthSrc(SourceCode sourceCode, CompiledCode compiledCode) {
-        Objects.requireNonNull(sourceCode);
-        pushCompiledSrc(sourceCode, compiledCode);
+    /**
+     * Record a failed entry, the first failure is thrown once the jar is closed.
+     */
+    private void failed(IOException e) {
+        LOG.error(e.getMessage(), e);
+        if (entryFailure == null)
+            entryFailure = e;
+        else
+            entryFailure.addSuppressed(e);
+    }
+
+    private void defer(String name, Resource resource) {
+        if (deferred.putIfAbsent(name, resource) != null)
+            LOG.error("duplicate entry: " + name);
+    }
+
+    private void writeEntry(String name, Resource resource) {
         try {
-            Class<?> tClass = compiler.getClassForSrc(compiledCode);
-            String packagename = tClass.getName().substring(0, tClass.getName().lastIndexOf('.'));
-            String filename = tClass.getName().substring(tClass.getName().lastIndexOf('.') + 1).concat(".java");
-            Resource resource = new Resource(filename, sourceCode.getContentAsBytes());
-            pushResource(packagename, resource);
-        } catch (ClassNotFoundException e) {
-            LOG.error(e.getMessage(), e);
+            ZipDirectory.Entry raw = previousEntries != null ? previousEntries.get(name) : null;
+            if (raw != null && isUnchanged(raw, resource)) {
+                jar.copy(previousJar, raw);
+                copiedEntries++;
+            } else {
+                jar.write(name, resource);
+            }
+        } catch (IOException e) {
+            failed(e);
         }
     }
 
+    private static boolean isUnchanged(ZipDirectory.Entry raw, Resource resource) throws IOException {
+        long size = resource.getSize();
+        if (size >= 0 && size != raw.size)
+            return false;
+        CRC32 crc = new CRC32();
+        long[] read = {0};
+        resource.writeTo(new OutputStream() {
+            @Override
+            public void write(int b) {
+                crc.update(b);
+                read[0]++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                crc.update(b, off, len);
+                read[0] += len;
+            }
+        });
+        return read[0] == raw.size && crc.getValue() == raw.crc;
+    }
+
     private void pushResources(String location, Set<Resource> resources) {
         Objects.requireNonNull(resources);
         resources.forEach(resource -> pushResource(location, resource));
     }
 
     private void pushResource(String location, Resource resource) {
+        if (deferred != null)
+            defer(entryName(location, resource), resource);
+        else
+            writeEntry(entryName(location, resource), resource);
+    }
+
+    private static String entryName(String location, Resource resource) {
         final String path = location.replaceAll("\\.", "/");
-        JarEntry entry = new JarEntry(String.join("/", path, resource.getFilename()));
-        try {
-            jos.putNextEntry(entry);
-            jos.write(resource.getContent());
-            jos.closeEntry();
-        } catch (IOException e) {
-            LOG.error(e.getMessage(), e);
-        }
+        return String.join("/", path, resource.getFilename());
+    }
+
+    /**
+     * @return copy of the manifest with its main attributes sorted, the version first
+     */
+    private static Manifest sorted(Manifest manifest) {
+        Manifest copy = new Manifest();
+        Attributes attributes = copy.getMainAttributes();
+        Map<String, Object> sorted = new TreeMap<>();
+        manifest.getMainAttributes().forEach((key, value) -> sorted.put(key.toString(), value));
+        Object version = sorted.remove(Attributes.Name.MANIFEST_VERSION.toString());
+        if (version != null)
+            attributes.put(Attributes.Name.MANIFEST_VERSION, version);
+        sorted.forEach((key, value) -> attributes.put(new Attributes.Name(key), value));
+        return copy;
     }
 
     public String getVersion() {
@@ -208,4 +718,23 @@ public class Packager {
     public Path getLocation() {
         return name;
     }
+
+    /**
+     * Keeps a caller supplied stream open once the jar is written.
+     */
+    private static class NonClosingOutputStream extends FilterOutputStream {
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.flush();
+        }
+    }
 }
@@ -0,0 +1,210 @@
+package com.tifires.genesis.packager.pack;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipException;
+
+/**
+ * Central directory of an existing zip, read to copy its entries raw or to serve them without extracting the
+ * archive.
+ */
+class ZipDirectory {
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final long ZIP32_LIMIT = 0xFFFFFFFFL;
+
+    /**
+     * An entry as stored in the archive.
+     */
+    static final class Entry {
+        String name;
+        int method;
+        int flags;
+        long time;
+        long crc;
+        long compressedSize;
+        long size;
+        long localHeaderOffset;
+    }
+
+    /**
+     * Reads {@code length} bytes at {@code position} of an archive.
+     */
+    private interface Source {
+        ByteBuffer read(long position, int length) throws IOException;
+
+        long size() throws IOException;
+    }
+
+    private ZipDirectory() {
+    }
+
+    /**
+     * @param channel
+     * @return entries by name, in archive order
+     * @throws IOException
+     */
+    static Map<String, Entry> read(FileChannel channel) throws IOException {
+        return read(of(channel));
+    }
+
+    /**
+     * @param archive the whole archive, from its position to its limit
+     * @return entries by name, in archive order
+     * @throws IOException
+     */
+    static Map<String, Entry> read(ByteBuffer archive) throws IOException {
+        return read(of(archive));
+    }
+
+    private static Map<String, Entry> read(Source source) throws IOException {
+        long length = source.size();
+        int tail = (int) Math.min(length, 22 + 0xFFFF);
+        ByteBuffer end = source.read(length - tail, tail);
+        int eocd = -1;
+        for (int i = tail - 22; i >= 0; i--) {
+            if (end.getInt(i) == END_OF_CENTRAL_DIRECTORY) {
+                eocd = i;
+                break;
+            }
+        }
+        if (eocd < 0)
+            throw new ZipException("Not a zip file, no end of central directory");
+
+        long entries = end.getShort(eocd + 10) & 0xFFFF;
+        long directorySize = end.getInt(eocd + 12) & ZIP32_LIMIT;
+        long directoryOffset = end.getInt(eocd + 16) & ZIP32_LIMIT;
+        if ((entries == 0xFFFF || directorySize == ZIP32_LIMIT || directoryOffset == ZIP32_LIMIT)
+                && eocd >= 20 && end.getInt(eocd - 20) == ZIP64_LOCATOR) {
+            ByteBuffer zip64 = source.read(end.getLong(eocd - 20 + 8), 56);
+            if (zip64.getInt(0) != ZIP64_END_OF_CENTRAL_DIRECTORY)
+                throw new ZipException("Invalid zip64 end of central directory");
+            entries = zip64.getLong(32);
+            directorySize = zip64.getLong(40);
+            directoryOffset = zip64.getLong(48);
+        }
+        if (directorySize > Integer.MAX_VALUE)
+            throw new ZipException("Central directory too large");
+
+        ByteBuffer directory = source.read(directoryOffset, (int) directorySize);
+        Map<String, Entry> read = new LinkedHashMap<>();
+        int position = 0;
+        for (long i = 0; i < entries; i++) {
+            if (directory.getInt(position) != CENTRAL_HEADER)
+                throw new ZipException("Invalid central directory header");
+            Entry entry = new Entry();
+            entry.flags = directory.getShort(position + 8) & 0xFFFF;
+            entry.method = directory.getShort(position + 10) & 0xFFFF;
+            entry.time = directory.getInt(position + 12) & ZIP32_LIMIT;
+            entry.crc = directory.getInt(position + 16) & ZIP32_LIMIT;
+            entry.compressedSize = directory.getInt(position + 20) & ZIP32_LIMIT;
+            entry.size = directory.getInt(position + 24) & ZIP32_LIMIT;
+            int nameLength = directory.getShort(position + 28) & 0xFFFF;
+            int extraLength = directory.getShort(position + 30) & 0xFFFF;
+            int commentLength = directory.getShort(position + 32) & 0xFFFF;
+            entry.localHeaderOffset = directory.getInt(position + 42) & ZIP32_LIMIT;
+            byte[] name = new byte[nameLength];
+            ((ByteBuffer) directory.duplicate().position(position + 46)).get(name);
+            entry.name = new String(name, StandardCharsets.UTF_8);
+            readZip64Extra(directory, position + 46 + nameLength, extraLength, entry);
+            read.put(entry.name, entry);
+            position += 46 + nameLength + extraLength + commentLength;
+        }
+        return read;
+    }
+
+    /**
+     * @return offset of the content of the given entry, right after its local header
+     */
+    static long dataOffset(FileChannel channel, Entry entry) throws IOException {
+        return dataOffset(of(channel), entry);
+    }
+
+    static long dataOffset(ByteBuffer archive, Entry entry) throws IOException {
+        return dataOffset(of(archive), entry);
+    }
+
+    private static long dataOffset(Source source, Entry entry) throws IOException {
+        ByteBuffer header = source.read(entry.localHeaderOffset, 30);
+        if (header.getInt(0) != LOCAL_HEADER)
+            throw new ZipException("Invalid local header for " + entry.name);
+        return entry.localHeaderOffset + 30 + (header.getShort(26) & 0xFFFF) + (header.getShort(28) & 0xFFFF);
+    }
+
+    private static void readZip64Extra(ByteBuffer directory, int start, int length, Entry entry) {
+        int position = start;
+        while (position + 4 <= start + length) {
+            int id = directory.getShort(position) & 0xFFFF;
+            int size = directory.getShort(position + 2) & 0xFFFF;
+            if (id == 0x0001) {
+                int field = position + 4;
+                if (entry.size == ZIP32_LIMIT) {
+                    entry.size = directory.getLong(field);
+                    field += 8;
+                }
+                if (entry.compressedSize == ZIP32_LIMIT) {
+                    entry.compressedSize = directory.getLong(field);
+                    field += 8;
+                }
+                if (entry.localHeaderOffset == ZIP32_LIMIT)
+                    entry.localHeaderOffset = directory.getLong(field);
+                return;
+            }
+            position += 4 + size;
+        }
+    }
+
+    private static Source of(FileChannel channel) {
+        return new Source() {
+            @Override
+            public ByteBuffer read(long position, int length) throws IOException {
+                ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, position + buffer.position()) < 0)
+                        throw new ZipException("Unexpected end of zip file");
+                }
+                buffer.flip();
+                return buffer;
+            }
+
+            @Override
+            public long size() throws IOException {
+                return channel.size();
+            }
+        };
+    }
+
+    private static Source of(ByteBuffer archive) {
+        return new Source() {
+            @Override
+            public ByteBuffer read(long position, int length) throws IOException {
+                if (position < 0 || position + length > archive.remaining())
+                    throw new ZipException("Unexpected end of zip file");
+                return slice(archive, position, length).order(ByteOrder.LITTLE_ENDIAN);
+            }
+
+            @Override
+            public long size() {
+                return archive.remaining();
+            }
+        };
+    }
+
+    /**
+     * @return independent view of {@code length} bytes at {@code position} relative to the buffer position
+     */
+    static ByteBuffer slice(ByteBuffer buffer, long position, int length) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(buffer.position() + (int) position);
+        slice.limit(slice.position() + length);
+        return slice.slice();
+    }
+}
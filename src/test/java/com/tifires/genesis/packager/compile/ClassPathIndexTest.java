@@ -0,0 +1,73 @@
+package com.tifires.genesis.packager.compile;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.tifires.genesis.packager.commons.CompiledCode;
+
+public class ClassPathIndexTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void compile_WhenIndexedClassPath() throws Exception {
+		Map<String, CompiledCode> library = Compiler.newInstance()
+				.addSource("org.lib.Dir", "package org.lib; public class Dir { public static int one() { return 1; } }")
+				.addSource("org.lib.jar.Packed", "package org.lib.jar; public class Packed { public static class Nested { } }")
+				.compileToBytecode();
+
+		File directory = folder.newFolder("classes");
+		Path dirClass = directory.toPath().resolve("org/lib/Dir.class");
+		Files.createDirectories(dirClass.getParent());
+		Files.write(dirClass, library.get("org.lib.Dir").getByteCode());
+		File jar = folder.newFile("lib.jar");
+		try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+			for (String name : Arrays.asList("org.lib.jar.Packed", "org.lib.jar.Packed$Nested")) {
+				out.putNextEntry(new JarEntry(name.replace('.', '/') + ".class"));
+				out.write(library.get(name).getByteCode());
+			}
+		}
+
+		try (ClassPathIndex index = ClassPathIndex.of(Arrays.asList(directory.toPath(), jar.toPath()))) {
+			Assert.assertEquals(3, index.size());
+			Assert.assertEquals(1, index.list("org.lib", false).size());
+			Assert.assertEquals(3, index.list("org.lib", true).size());
+
+			Map<String, CompiledCode> compiled = Compiler.newInstance().useClassPathIndex(index)
+					.addSource("org.app.App", "package org.app; public class App {"
+							+ " int one = org.lib.Dir.one(); org.lib.jar.Packed.Nested nested; }")
+					.compileToBytecode();
+			Assert.assertTrue(compiled.containsKey("org.app.App"));
+		}
+	}
+
+	@Test(expected = CompilationException.class)
+	public void compile_WhenClassNotIndexed() throws Exception {
+		Compiler.newInstance().useClassPathIndex(ClassPathIndex.of(Arrays.<Path> asList()))
+				.addSource("org.app.App", "package org.app; public class App { org.junit.Assert missing; }")
+				.compileToBytecode();
+	}
+
+	@Test
+	public void compile_WhenLayeredInMemory() throws Exception {
+		Compiler base = Compiler.newInstance().useClassPathIndex(ClassPathIndex.ofSystemClassPath());
+		base.addSource("org.gen.Base", "package org.gen; public class Base { public int id() { return 1; } }").compileAll();
+
+		Class<?> derived = Compiler.newInstance().useClassPathIndex(ClassPathIndex.ofSystemClassPath())
+				.useParentClassLoader(base.getClassloader())
+				.compile("org.gen.Derived", "package org.gen; public class Derived extends Base { org.junit.Assert onClassPath; }");
+		Assert.assertEquals(1, derived.getMethod("id").invoke(derived.newInstance()));
+	}
+}
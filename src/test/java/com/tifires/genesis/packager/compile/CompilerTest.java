@@ -1,12 +1,29 @@
 package com.tifires.genesis.packager.compile;
 
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+import com.tifires.genesis.packager.commons.CompiledCode;
+import com.tifires.genesis.packager.commons.SourceCode;
 import org.junit.Assert;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -16,6 +33,9 @@ public class CompilerTest {
 	@Rule
 	public ExpectedException thrown = ExpectedException.none();
 
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
 	@Test
 	public void compile_WhenTypical() throws Exception {
 		StringBuffer sourceCode = new StringBuffer();
@@ -60,6 +80,68 @@ public class CompilerTest {
 		Assert.assertEquals(1, helloClass.getDeclaredMethods().length);
 	}
 
+	@Test
+	@SuppressWarnings("deprecation")
+	public void compileToBytecode_WhenSourceContainsInnerClasses() throws Exception {
+		StringBuffer sourceCode = new StringBuffer();
+
+		sourceCode.append("package org.mdkt;\n");
+		sourceCode.append("public class HelloClass {\n");
+		sourceCode.append("   private static class InnerHelloWorld { int inner; }\n");
+		sourceCode.append("   public Runnable task() { return new Runnable() { public void run() { } }; }");
+		sourceCode.append("}");
+
+		Compiler compiler = Compiler.newInstance().addSource("org.mdkt.HelloClass", sourceCode.toString());
+		Map<String, CompiledCode> compiledCodes = compiler.compileToBytecode();
+		Assert.assertEquals(new TreeSet<>(Arrays.asList("org.mdkt.HelloClass", "org.mdkt.HelloClass$1",
+				"org.mdkt.HelloClass$InnerHelloWorld")), compiledCodes.keySet());
+
+		Map<SourceCode, List<CompiledCode>> units = compiler.getCompiledUnits();
+		Assert.assertEquals(1, units.size());
+		Assert.assertEquals(3, units.values().iterator().next().size());
+		Assert.assertEquals(1, compiler.getResources().size());
+	}
+
+	@Test
+	public void compile_WhenFastProfile() throws Exception {
+		String sourceCode = "package org.mdkt; public class Profiled { public int add(int left, int right) { return left + right; } }";
+
+		Compiler fast = Compiler.newInstance().useProfile(CompilationProfile.FAST).addSource("org.mdkt.Profiled", sourceCode);
+		Class<?> fastClass = fast.compileAll().get("org.mdkt.Profiled");
+		Assert.assertEquals(3, fastClass.getMethod("add", int.class, int.class).invoke(fastClass.newInstance(), 1, 2));
+
+		Compiler debug = Compiler.newInstance().useProfile(CompilationProfile.DEBUG).addSource("org.mdkt.Profiled", sourceCode);
+		Class<?> debugClass = debug.compileAll().get("org.mdkt.Profiled");
+		Assert.assertTrue(debugClass.getMethod("add", int.class, int.class).getParameters()[0].isNamePresent());
+		// no debug info at all
+		Assert.assertTrue(fast.getCompiledCodes().get("org.mdkt.Profiled").getSize()
+				< debug.getCompiledCodes().get("org.mdkt.Profiled").getSize());
+	}
+
+	@Test
+	public void getDiagnostics_reportsProfileCost() throws Exception {
+		Compiler compiler = Compiler.newInstance().useProfile(CompilationProfile.FAST).ignoreWarnings()
+				.addSource("org.mdkt.Costly", "package org.mdkt; public class Costly { java.util.List<String> list = new java.util.ArrayList(); }");
+		compiler.compileAll();
+		List<Diagnostic<? extends JavaFileObject>> diagnostics = compiler.getDiagnostics();
+		// javac's own note on the unchecked conversion comes first
+		Assert.assertFalse(diagnostics.get(0) instanceof CompilationCost);
+		Diagnostic<? extends JavaFileObject> last = diagnostics.get(diagnostics.size() - 1);
+		Assert.assertTrue(last instanceof CompilationCost);
+		Assert.assertEquals(Diagnostic.Kind.NOTE, last.getKind());
+		Assert.assertEquals(CompilationProfile.FAST, ((CompilationCost) last).getProfile());
+		Assert.assertEquals(1, ((CompilationCost) last).getSources());
+		Assert.assertTrue(last.getMessage(null).contains("FAST profile"));
+	}
+
+	@Test
+	public void compile_WhenDebugProfileWarns() throws Exception {
+		String sourceCode = "package org.mdkt; public class Lint implements java.io.Serializable { }";
+		thrown.expect(CompilationException.class);
+		thrown.expectMessage("serial");
+		Compiler.newInstance().useProfile(CompilationProfile.DEBUG).compile("org.mdkt.Lint", sourceCode);
+	}
+
 	@Test
 	public void compile_whenError() throws Exception {
 		thrown.expect(CompilationException.class);
@@ -114,4 +196,149 @@ public class CompilerTest {
 			throw e;
 		}
 	}
+
+	@Test
+	public void compileAll_WhenCached() throws Exception {
+		String cls1 = "public class A{ public B b() { return new B(); } class Inner {} }";
+		String cls2 = "public class B{ public String toString() { return \"B!\"; }}";
+		CompilationCache cache = CompilationCache.newInstance().useDirectory(folder.getRoot().toPath());
+
+		Compiler.newInstance().useCache(cache).addSource("A", cls1).addSource("B", cls2).compileAll();
+		Assert.assertEquals(0, cache.getHits());
+		Assert.assertEquals(1, cache.getMisses());
+
+		Map<String, Class<?>> compiled = Compiler.newInstance().useCache(cache).addSource("B", cls2).addSource("A", cls1).compileAll();
+		Assert.assertEquals(1, cache.getHits());
+		Class<?> aClass = compiled.get("A");
+		Assert.assertEquals("B!", aClass.getMethod("b").invoke(aClass.newInstance()).toString());
+		Assert.assertNotNull(aClass.getClassLoader().loadClass("A$Inner"));
+
+		CompilationCache restarted = CompilationCache.newInstance().useDirectory(folder.getRoot().toPath());
+		compiled = Compiler.newInstance().useCache(restarted).addSource("A", cls1).addSource("B", cls2).compileAll();
+		Assert.assertEquals(1, restarted.getDiskHits());
+		Assert.assertNotNull(compiled.get("B"));
+
+		Compiler.newInstance().useCache(restarted).useOptions("-g:none").addSource("A", cls1).addSource("B", cls2).compileAll();
+		Assert.assertEquals(1, restarted.getMisses());
+	}
+
+	@Test
+	public void compile_WhenSharedEngine() throws Exception {
+		CompilerEngine engine = CompilerEngine.newInstance(2).warmUp();
+		Assert.assertEquals(2, engine.getIdleCount());
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Class<?>>> results = new ArrayList<>();
+			for (int i = 0; i < 16; i++) {
+				String className = "org.mdkt.Hello" + i;
+				String source = "package org.mdkt; public class Hello" + i + " { public int id() { return " + i + "; } }";
+				results.add(executor.submit(() -> Compiler.newInstance().useEngine(engine).compile(className, source)));
+			}
+			for (int i = 0; i < results.size(); i++) {
+				Class<?> helloClass = results.get(i).get();
+				Assert.assertEquals(i, helloClass.getMethod("id").invoke(helloClass.newInstance()));
+			}
+		} finally {
+			executor.shutdown();
+			engine.close();
+		}
+		Assert.assertEquals(0, engine.getIdleCount());
+	}
+
+	@Test
+	public void compileAll_WhenParallel() throws Exception {
+		Compiler compiler = Compiler.newInstance().useForkJoinPool(new ForkJoinPool(4)).usePartitionSize(2);
+		compiler.addSource("org.mdkt.base.Base", "package org.mdkt.base; public class Base { public int value() { return 1; } }");
+		for (int i = 0; i < 12; i++)
+			compiler.addSource("org.mdkt.Leaf" + i, "package org.mdkt; import org.mdkt.base.*; public class Leaf" + i
+					+ " extends Base { public int value() { return super.value() + " + i + "; } }");
+		compiler.addSource("org.mdkt.Ping", "package org.mdkt; public class Ping { Pong pong; }");
+		compiler.addSource("org.mdkt.Pong", "package org.mdkt; public class Pong { Ping ping; }");
+		compiler.addSource("org.mdkt.Root", "package org.mdkt; public class Root { public int value() { return new Leaf11().value() + new Leaf3().value(); } }");
+
+		Map<String, Class<?>> compiled = compiler.compileAll();
+		Assert.assertEquals(16, compiled.size());
+		Class<?> root = compiled.get("org.mdkt.Root");
+		Assert.assertEquals(16, root.getMethod("value").invoke(root.newInstance()));
+	}
+
+	@Test
+	public void compileAll_WhenParallelAndError() throws Exception {
+		String expected = null;
+		for (ForkJoinPool pool : new ForkJoinPool[]{null, new ForkJoinPool(4)}) {
+			Compiler compiler = Compiler.newInstance().usePartitionSize(1);
+			if (pool != null)
+				compiler.useForkJoinPool(pool);
+			for (int i = 0; i < 6; i++)
+				compiler.addSource("Unit" + i, "public class Unit" + i + " { " + (i % 2 == 0 ? "Missing" + i : "int") + " field; }");
+			try {
+				compiler.compileAll();
+				Assert.fail();
+			} catch (CompilationException e) {
+				if (expected == null)
+					expected = e.getMessage();
+				Assert.assertEquals(expected, e.getMessage());
+			}
+		}
+	}
+
+	@Test
+	public void recompileChanged_WhenTypical() throws Exception {
+		Compiler compiler = Compiler.newInstance()
+				.addSource("A", "public class A { public int a() { return new B().value(); } }")
+				.addSource("B", "public class B { public int value() { return 1; } }")
+				.addSource("C", "public class C { }")
+				.addSource("D", "public class D extends A { }");
+		compiler.compileAll();
+		ClassLoader first = compiler.getClassloader();
+
+		Map<String, Class<?>> recompiled = compiler.updateSource("B", "public class B { public int value() { return 2; } }").recompileChanged();
+		Assert.assertEquals(1, recompiled.size());
+		Assert.assertNotSame(first, compiler.getClassloader());
+		Class<?> aClass = compiler.getClassloader().loadClass("A");
+		Assert.assertEquals(2, aClass.getMethod("a").invoke(aClass.newInstance()));
+
+		recompiled = compiler.updateSource("B", "public class B { public short value() { return 3; } }").recompileChanged();
+		Assert.assertEquals(2, recompiled.size());
+		Assert.assertNotNull(recompiled.get("A"));
+		aClass = compiler.getClassloader().loadClass("A");
+		Assert.assertEquals(3, aClass.getMethod("a").invoke(aClass.newInstance()));
+
+		Assert.assertTrue(compiler.updateSource("C", "public class C { }").recompileChanged().isEmpty());
+	}
+
+	@Test
+	public void recompileChanged_WhenBroken() throws Exception {
+		Compiler compiler = Compiler.newInstance()
+				.addSource("A", "public class A { public int a() { return new B().value(); } }")
+				.addSource("B", "public class B { public int value() { return 1; } }");
+		compiler.compileAll();
+		ClassLoader first = compiler.getClassloader();
+
+		compiler.removeSource("B");
+		try {
+			compiler.recompileChanged();
+			Assert.fail();
+		} catch (CompilationException e) {
+			Assert.assertSame(first, compiler.getClassloader());
+			Assert.assertTrue(compiler.getChangedSources().contains("B"));
+		}
+	}
+
+	@Test
+	public void getCompilationKey_WhenClassPathJarChanges() throws Exception {
+		File jar = folder.newFile("lib.jar");
+		Files.write(jar.toPath(), new byte[]{1});
+		try (URLClassLoader parent = new URLClassLoader(new URL[]{jar.toURI().toURL()}, null)) {
+			Compiler compiler = Compiler.newInstance().useParentClassLoader(parent).addSource("A", "public class A { }");
+			String key = compiler.getCompilationKey();
+			Assert.assertEquals(key, compiler.getCompilationKey());
+
+			// same path, new content
+			Files.write(jar.toPath(), new byte[]{1, 2});
+			Assert.assertNotEquals(key, compiler.getCompilationKey());
+			Assert.assertNotEquals(compiler.getCompilationKey(), compiler.useProfile(CompilationProfile.FAST).getCompilationKey());
+		}
+	}
 }
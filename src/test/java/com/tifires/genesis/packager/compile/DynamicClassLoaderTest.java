@@ -0,0 +1,116 @@
+package com.tifires.genesis.packager.compile;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.tifires.genesis.packager.commons.BytecodeStore;
+import com.tifires.genesis.packager.commons.CompiledCode;
+
+public class DynamicClassLoaderTest {
+	private static final int CLASSES = 64;
+	private static final int THREADS = 16;
+
+	@Test
+	public void loadClass_WhenBytecodeStore() throws Exception {
+		BytecodeStore store = BytecodeStore.newInstance(4096, true);
+		Compiler compiler = Compiler.newInstance().useBytecodeStore(store);
+		compiler.addSource("org.mdkt.Stored", "package org.mdkt; public class Stored {"
+				+ " class Inner { } public int id() { return 42; } }");
+		Map<String, CompiledCode> compiledCodes = compiler.compileToBytecode();
+		byte[] byteCode = compiledCodes.get("org.mdkt.Stored").getByteCode().clone();
+		Assert.assertEquals(0, store.getUsed());
+
+		Class<?> type = compiler.getClassloader().loadClass("org.mdkt.Stored");
+		Assert.assertEquals(42, type.getMethod("id").invoke(type.newInstance()));
+
+		CompiledCode stored = compiler.getCompiledCodes().get("org.mdkt.Stored");
+		Assert.assertTrue(stored.isStored());
+		Assert.assertTrue(stored.getByteBuffer().isDirect());
+		Assert.assertArrayEquals(byteCode, stored.getByteCode());
+		Assert.assertEquals(byteCode.length, store.getUsed());
+		// never loaded, still on the heap
+		Assert.assertFalse(compiler.getCompiledCodes().get("org.mdkt.Stored$Inner").isStored());
+
+		// classes can be defined again straight from the store
+		DynamicClassLoader loader = new DynamicClassLoader(ClassLoader.getSystemClassLoader());
+		loader.addCode(stored);
+		Assert.assertNotSame(type, loader.loadClass("org.mdkt.Stored"));
+	}
+
+	@Test
+	public void loadClass_WhenConcurrent() throws Exception {
+		Compiler compiler = Compiler.newInstance();
+		List<String> names = new ArrayList<>();
+		for (int i = 0; i < CLASSES; i++) {
+			String name = "org.mdkt.stress.Type" + i;
+			String parent = i == 0 ? "Object" : "Type" + (i - 1);
+			compiler.addSource(name, "package org.mdkt.stress; public class Type" + i + " extends " + parent
+					+ " { public int id() { return " + i + "; } }");
+			names.add(name);
+		}
+		compiler.compileAll();
+		Map<String, byte[]> byteCodes = new HashMap<>();
+		((DynamicClassLoader) compiler.getClassloader()).getCompiledCodes()
+				.forEach((name, code) -> byteCodes.put(name, code.getByteCode()));
+
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS + 1);
+		try {
+			for (int round = 0; round < 10; round++) {
+				DynamicClassLoader loader = new DynamicClassLoader(ClassLoader.getSystemClassLoader());
+				// first half up front, the rest is added while the other threads load
+				for (int i = 0; i < CLASSES / 2; i++)
+					loader.addCode(new CompiledCode(names.get(i), byteCodes.get(names.get(i))));
+				CyclicBarrier start = new CyclicBarrier(THREADS + 1);
+
+				Future<?> writer = executor.submit(() -> {
+					start.await();
+					for (int i = CLASSES / 2; i < CLASSES; i++)
+						loader.addCode(new CompiledCode(names.get(i), byteCodes.get(names.get(i))));
+					return null;
+				});
+				List<Future<Map<String, Class<?>>>> readers = new ArrayList<>();
+				for (int t = 0; t < THREADS; t++) {
+					long seed = round * THREADS + t;
+					readers.add(executor.submit(() -> {
+						List<String> order = new ArrayList<>(names);
+						Collections.shuffle(order, new Random(seed));
+						start.await();
+						Map<String, Class<?>> loaded = new HashMap<>();
+						for (String name : order) {
+							while (!loader.getCompiledCodes().containsKey(name))
+								Thread.yield();
+							loaded.put(name, loader.loadClass(name));
+						}
+						return loaded;
+					}));
+				}
+
+				writer.get();
+				Map<String, Class<?>> reference = readers.get(0).get();
+				for (Future<Map<String, Class<?>>> reader : readers) {
+					Map<String, Class<?>> loaded = reader.get();
+					for (String name : names)
+						Assert.assertSame(reference.get(name), loaded.get(name));
+				}
+				for (int i = 0; i < CLASSES; i++) {
+					Class<?> type = reference.get(names.get(i));
+					Assert.assertSame(loader, type.getClassLoader());
+					Assert.assertEquals(i, type.getMethod("id").invoke(type.newInstance()));
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package com.tifires.genesis.packager.compile;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LoaderGenerationsTest {
+
+	@Test
+	public void publish_WhenRecompiled() throws Exception {
+		LoaderGenerations generations = LoaderGenerations.newInstance();
+		Compiler compiler = Compiler.newInstance().useGenerations(generations);
+		compiler.addSource("org.mdkt.Reloaded", source(1));
+		compiler.compileAll();
+		LoaderGenerations.Generation first = generations.getCurrent();
+		Assert.assertEquals(1, first.getNumber());
+		Assert.assertTrue(first.getFootprint() > 0);
+
+		LoaderGenerations.Lease lease = generations.acquire();
+		Assert.assertEquals(1, version(lease.loadClass("org.mdkt.Reloaded")));
+
+		compiler.updateSource("org.mdkt.Reloaded", source(2)).recompileChanged();
+		LoaderGenerations.Generation second = generations.getCurrent();
+		Assert.assertEquals(2, second.getNumber());
+		Assert.assertTrue(first.isRetired());
+		Assert.assertFalse(first.isReleased());
+		// the lease keeps its own generation
+		Assert.assertEquals(1, version(lease.loadClass("org.mdkt.Reloaded")));
+		try (LoaderGenerations.Lease next = generations.acquire()) {
+			Assert.assertEquals(2, version(next.loadClass("org.mdkt.Reloaded")));
+		}
+
+		lease.close();
+		Assert.assertTrue(first.isReleased());
+		Assert.assertNull(first.getClassLoader());
+		Assert.assertFalse(second.isRetired());
+
+		lease = null;
+		for (int i = 0; i < 50 && !first.isCollected(); i++) {
+			System.gc();
+			Thread.sleep(20);
+		}
+		Assert.assertTrue(first.isCollected());
+		Assert.assertEquals(1, generations.getGenerations().size());
+		Assert.assertSame(second, generations.getGenerations().get(0));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void acquire_WhenNothingPublished() {
+		LoaderGenerations.newInstance().acquire();
+	}
+
+	private static String source(int version) {
+		return "package org.mdkt; public class Reloaded { public int version() { return " + version + "; } }";
+	}
+
+	private static int version(Class<?> type) throws Exception {
+		return (Integer) type.getMethod("version").invoke(type.newInstance());
+	}
+}
@@ -0,0 +1,76 @@
+package com.tifires.genesis.packager.gradle;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class GradleConnectionPoolTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void acquire_reusesAndEvicts() throws IOException {
+        File first = folder.newFolder("first");
+        File second = folder.newFolder("second");
+        try (GradleConnectionPool pool = GradleConnectionPool.newInstance(1, 1, TimeUnit.HOURS)) {
+            GradleConnectionPool.Lease lease = pool.acquire(first);
+            try (GradleConnectionPool.Lease again = pool.acquire(new File(first, "../first"))) {
+                Assert.assertSame(lease.getConnection(), again.getConnection());
+            }
+
+            lease.close();
+            // the idle connection is closed to make room
+            GradleConnectionPool.Lease other = pool.acquire(second);
+            Assert.assertNotSame(lease.getConnection(), other.getConnection());
+            Assert.assertEquals(1, pool.size());
+            other.close();
+            pool.evictAll();
+            Assert.assertEquals(0, pool.size());
+        }
+    }
+
+    @Test
+    public void acquire_whenAllLeased() throws Exception {
+        File first = folder.newFolder("first");
+        File second = folder.newFolder("second");
+        File third = folder.newFolder("third");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (GradleConnectionPool pool = GradleConnectionPool.newInstance(2, 1, TimeUnit.HOURS)
+                .useAcquireTimeout(100, TimeUnit.MILLISECONDS)) {
+            GradleConnectionPool.Lease lease = pool.acquire(first);
+            GradleConnectionPool.Lease other = pool.acquire(second);
+            try {
+                pool.acquire(third);
+                Assert.fail("the pool is full");
+            } catch (IllegalStateException e) {
+                Assert.assertEquals(2, pool.size());
+            }
+            // a leased directory is shared, whatever the size
+            try (GradleConnectionPool.Lease again = pool.acquire(first)) {
+                Assert.assertSame(lease.getConnection(), again.getConnection());
+            }
+
+            // waits until a lease is released
+            pool.useAcquireTimeout(1, TimeUnit.MINUTES);
+            Future<GradleConnectionPool.Lease> waiting = executor.submit(() -> pool.acquire(third));
+            Thread.sleep(100);
+            Assert.assertFalse(waiting.isDone());
+            lease.close();
+            GradleConnectionPool.Lease last = waiting.get(1, TimeUnit.MINUTES);
+            Assert.assertNotSame(other.getConnection(), last.getConnection());
+            Assert.assertEquals(2, pool.size());
+            other.close();
+            last.close();
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.tifires.genesis.packager.gradle;
+
+import com.tifires.genesis.packager.commons.Resource;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class GradlerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void render_whenDefaults() {
+        String script = Gradler.render(BuildGradleModel.defaults());
+        Assert.assertTrue(script.contains("    id \"io.ebean\" version \"12.1.8\"\n"));
+        Assert.assertTrue(script.contains("sourceCompatibility = 8\n"));
+        Assert.assertTrue(script.contains("    jcenter()\n"));
+        Assert.assertTrue(script.contains("    set('vaadinVersion', \"14.1.5\")\n"));
+        Assert.assertTrue(script.contains("    compile 'io.ebean:ebean:12.1.8'\n"));
+        Assert.assertTrue(script.contains("mavenBom \"com.vaadin:vaadin-bom:${vaadinVersion}\""));
+        Assert.assertSame(script, Gradler.render(BuildGradleModel.defaults()));
+    }
+
+    @Test
+    public void render_whenOffline() {
+        String script = Gradler.render(BuildGradleModel.newInstance().useJavaVersion("11")
+                .dependency("implementation", "org.slf4j:slf4j-api:1.7.5")
+                .useOffline(true, Paths.get("/opt/repo")));
+        Assert.assertTrue(script.contains("sourceCompatibility = 11\n"));
+        Assert.assertTrue(script.contains("    implementation 'org.slf4j:slf4j-api:1.7.5'\n"));
+        Assert.assertTrue(script.contains("    mavenLocal()\n"));
+        Assert.assertFalse(script.contains("mavenCentral()"));
+        Assert.assertFalse(script.contains("ext {"));
+    }
+
+    @Test
+    public void materialize_whenFileFails() throws IOException {
+        Path project = folder.newFolder("project").toPath();
+        Gradler gradler = Gradler.newInstance();
+        gradler.setLocation(project);
+        gradler.init();
+        gradler.pushResource("conf", new Resource("ok.properties", "a=1".getBytes()));
+        gradler.pushResource("conf", Resource.ofStream("broken.properties", () -> new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("disk gone");
+            }
+        }));
+        try {
+            gradler.materialize();
+            Assert.fail();
+        } catch (UncheckedIOException e) {
+            Assert.assertEquals("disk gone", e.getCause().getMessage());
+        }
+        // the other files are written anyway
+        Assert.assertTrue(Files.exists(project.resolve("build.gradle")));
+        Assert.assertTrue(Files.exists(project.resolve("src/main/resources/conf/ok.properties")));
+    }
+}
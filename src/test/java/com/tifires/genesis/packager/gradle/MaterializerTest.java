@@ -0,0 +1,77 @@
+package com.tifires.genesis.packager.gradle;
+
+import com.tifires.genesis.packager.commons.Resource;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class MaterializerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void materialize_whenConcurrent() throws IOException {
+        Path root = folder.newFolder("project").toPath();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Materializer materializer = Materializer.newInstance().useExecutor(executor).useFsync(true);
+            for (int i = 0; i < 200; i++)
+                materializer.add(root.resolve("src/main/java/p" + (i % 7) + "/C" + i + ".java"), new Resource("C" + i + ".java", ("class C" + i + " {}").getBytes()));
+            materializer.add(root.resolve("build.gradle"), new Resource("build.gradle", "old".getBytes()));
+            materializer.add(root.resolve("build.gradle"), new Resource("build.gradle", "new".getBytes()));
+            Assert.assertEquals(201, materializer.getPending());
+
+            Properties state = new Properties();
+            materializer.materialize(root, state);
+            Assert.assertEquals(0, materializer.getPending());
+            Assert.assertEquals(201, materializer.getWritten());
+            Assert.assertEquals("class C42 {}", new String(Files.readAllBytes(root.resolve("src/main/java/p0/C42.java"))));
+            Assert.assertEquals("new", new String(Files.readAllBytes(root.resolve("build.gradle"))));
+            Assert.assertEquals(201, state.size());
+
+            // unchanged content is left in place
+            materializer.add(root.resolve("build.gradle"), new Resource("build.gradle", "new".getBytes()));
+            materializer.add(root.resolve("src/main/java/p0/C42.java"), new Resource("C42.java", "class C42 { }".getBytes()));
+            materializer.materialize(root, state);
+            Assert.assertEquals(1, materializer.getSkipped());
+            Assert.assertEquals(202, materializer.getWritten());
+            Assert.assertEquals("class C42 { }", new String(Files.readAllBytes(root.resolve("src/main/java/p0/C42.java"))));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void materialize_whenPreviousSnapshot() throws IOException {
+        Path previous = folder.newFolder("previous").toPath();
+        Materializer.newInstance()
+                .add(previous.resolve("src/A.java"), new Resource("A.java", "class A {}".getBytes()))
+                .add(previous.resolve("src/B.java"), new Resource("B.java", "class B {}".getBytes()))
+                .materialize(previous, null);
+
+        Path root = folder.newFolder("next").toPath();
+        Materializer materializer = Materializer.newInstance().useExecutor(null).usePreviousSnapshot(previous)
+                .add(root.resolve("src/A.java"), new Resource("A.java", "class A {}".getBytes()))
+                .add(root.resolve("src/B.java"), new Resource("B.java", "class B { int b; }".getBytes()))
+                .materialize(root, null);
+        Assert.assertEquals(1, materializer.getLinked());
+        Assert.assertEquals(1, materializer.getWritten());
+        Assert.assertEquals("class A {}", new String(Files.readAllBytes(root.resolve("src/A.java"))));
+        Assert.assertEquals("class B { int b; }", new String(Files.readAllBytes(root.resolve("src/B.java"))));
+
+        // a linked file is replaced, not written through, when it changes
+        materializer.add(root.resolve("src/A.java"), new Resource("A.java", "class A { int a; }".getBytes()))
+                .usePreviousSnapshot(null).materialize(root, null);
+        Assert.assertEquals("class A { int a; }", new String(Files.readAllBytes(root.resolve("src/A.java"))));
+        Assert.assertEquals("class A {}", new String(Files.readAllBytes(previous.resolve("src/A.java"))));
+        Assert.assertEquals("class B {}", new String(Files.readAllBytes(previous.resolve("src/B.java"))));
+    }
+}
@@ -0,0 +1,36 @@
+package com.tifires.genesis.packager.metrics;
+
+import com.tifires.genesis.packager.commons.Resource;
+import com.tifires.genesis.packager.pack.Packager;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+public class MicrometerInstrumentationTest {
+
+    @Test
+    public void pack_reportsMetrics() throws IOException {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        byte[] content = new byte[4096];
+        Packager.newInstance()
+                .useInstrumentation(MicrometerInstrumentation.newInstance(registry, "app", "test"))
+                .addSource("com.tifires.Hello", "package com.tifires; public class Hello { class Inner {} }")
+                .addResources("desc", new Resource("res.txt", content))
+                .packToBuffer(false);
+
+        Assert.assertEquals(1, registry.get(Metrics.COMPILE_JAVAC).tag("app", "test").timer().count());
+        Assert.assertEquals(1.0, registry.get(Metrics.COMPILE_SOURCES).counter().count(), 0);
+        Assert.assertEquals(0.0, registry.get(Metrics.COMPILE_DIAGNOSTICS).counter().count(), 0);
+        Assert.assertTrue(registry.get(Metrics.COMPILE_BYTECODE_BYTES).counter().count() > 0);
+        // packing goes from bytecode to entries without loading any class
+        Assert.assertNull(registry.find(Metrics.CLASS_LOADING).timer());
+        Assert.assertEquals(1, registry.get(Metrics.PACK).timer().count());
+        // manifest, resource and two classes
+        Assert.assertEquals(4, registry.get(Metrics.JAR_ENTRY).timer().count());
+        Assert.assertTrue(registry.get(Metrics.JAR_BYTES_UNCOMPRESSED).counter().count() >= content.length);
+        Assert.assertTrue(registry.get(Metrics.JAR_BYTES_COMPRESSED).counter().count() < content.length);
+    }
+}
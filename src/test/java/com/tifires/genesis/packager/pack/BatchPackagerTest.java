@@ -0,0 +1,93 @@
+package com.tifires.genesis.packager.pack;
+
+import com.tifires.genesis.packager.commons.Resource;
+import com.tifires.genesis.packager.compile.CompilationException;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.jar.JarFile;
+import java.util.jar.JarInputStream;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+
+public class BatchPackagerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void packAll_whenTypical() throws IOException {
+        Path output = folder.getRoot().toPath().resolve("tenant2.jar");
+        List<PackageSpec> specs = Arrays.asList(
+                PackageSpec.newInstance("tenant1")
+                        .addSource("com.tenant1.Hello", "package com.tenant1; public class Hello extends com.common.Base { class Inner {} }")
+                        .addResources("conf", new Resource("tenant.properties", "id=1".getBytes(StandardCharsets.UTF_8))),
+                PackageSpec.newInstance("broken")
+                        .addSource("com.broken.Hello", "package com.broken; public class Hello extends Missing {}"),
+                PackageSpec.newInstance("tenant2")
+                        .addSource("com.tenant2.Hello", "package com.tenant2; public class Hello extends com.common.Base {}")
+                        .useOutput(output));
+
+        List<PackageResult> results = BatchPackager.newInstance()
+                .addCommonSource("com.common.Base", "package com.common; public class Base { public String name() { return \"base\"; } }")
+                .addCommonResources("conf", new Resource("common.properties", "shared=true".getBytes(StandardCharsets.UTF_8)))
+                .packAll(specs, true);
+
+        Assert.assertEquals(3, results.size());
+        Assert.assertTrue(results.get(0).isSuccess());
+        Assert.assertEquals(new HashSet<>(Arrays.asList("conf/common.properties", "conf/tenant.properties",
+                "com/common/Base.class", "com/common/Base.java", "com/tenant1/Hello.class", "com/tenant1/Hello$Inner.class",
+                "com/tenant1/Hello.java")), entries(results.get(0).getContent()));
+
+        Assert.assertFalse(results.get(1).isSuccess());
+        Assert.assertTrue(results.get(1).getError() instanceof CompilationException);
+
+        Assert.assertTrue(results.get(2).isSuccess());
+        Assert.assertEquals(output, results.get(2).getOutput());
+        try (JarFile jar = new JarFile(output.toFile())) {
+            Assert.assertNotNull(jar.getEntry("com/tenant2/Hello.class"));
+            Assert.assertNotNull(jar.getEntry("com/common/Base.class"));
+        }
+    }
+
+    @Test
+    public void packAll_whenWriteFails() throws IOException {
+        Path output = folder.getRoot().toPath().resolve("tenant.jar");
+        Files.write(output, "previous".getBytes(StandardCharsets.UTF_8));
+        Resource broken = Resource.ofStream("broken.bin", () -> new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("disk gone");
+            }
+        });
+        List<PackageSpec> specs = Collections.singletonList(PackageSpec.newInstance("tenant")
+                .addResources("conf", new Resource("tenant.properties", "id=1".getBytes(StandardCharsets.UTF_8)), broken)
+                .useOutput(output));
+
+        List<PackageResult> results = BatchPackager.newInstance().packAll(specs, false);
+        Assert.assertFalse(results.get(0).isSuccess());
+        // the previous output is left as it was, no partial jar remains
+        Assert.assertEquals("previous", new String(Files.readAllBytes(output), StandardCharsets.UTF_8));
+        try (Stream<Path> files = Files.list(folder.getRoot().toPath())) {
+            Assert.assertEquals(Collections.singletonList(output), files.collect(Collectors.toList()));
+        }
+    }
+
+    private static Set<String> entries(byte[] jar) throws IOException {
+        Set<String> names = new HashSet<>();
+        try (JarInputStream in = new JarInputStream(new ByteArrayInputStream(jar))) {
+            for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry())
+                names.add(entry.getName());
+        }
+        return names;
+    }
+}
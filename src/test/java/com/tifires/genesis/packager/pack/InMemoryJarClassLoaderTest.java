@@ -0,0 +1,84 @@
+package com.tifires.genesis.packager.pack;
+
+import com.tifires.genesis.packager.commons.Resource;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.Attributes;
+
+public class InMemoryJarClassLoaderTest {
+    private static final String SRC = "package com.tifires;\n"
+            + "public class HelloClass {\n"
+            + "   public String hello() { return \"hello\"; }\n"
+            + "}";
+
+    @Test
+    public void packToClassLoader_servesClassesAndResources() throws Exception {
+        byte[] stored = new byte[4096];
+        Packager packager = Packager.newInstance().useCompression(CompressionPolicy.deflateAll(9))
+                .addSource("com.tifires.HelloClass", SRC)
+                .addResources("desc", new Resource("res.json", "{\"a\":1}".getBytes()), new Resource("zeros.bin", stored));
+        InMemoryJarClassLoader loader = packager.packToClassLoader(getClass().getClassLoader());
+        Assert.assertNull(packager.getLocation());
+        Assert.assertEquals("1.0.0", loader.getManifest().getMainAttributes().getValue(Attributes.Name.MANIFEST_VERSION));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Class<?>>> loads = new ArrayList<>();
+            for (int i = 0; i < 8; i++)
+                loads.add(executor.submit(() -> loader.loadClass("com.tifires.HelloClass")));
+            Class<?> clazz = loads.get(0).get();
+            for (Future<Class<?>> load : loads)
+                Assert.assertSame(clazz, load.get());
+            Assert.assertSame(loader, clazz.getClassLoader());
+            Assert.assertEquals("hello", clazz.getMethod("hello").invoke(clazz.getDeclaredConstructor().newInstance()));
+            Assert.assertNotNull(clazz.getPackage());
+        } finally {
+            executor.shutdown();
+        }
+
+        Assert.assertEquals("{\"a\":1}", new String(read(loader.getResourceAsStream("desc/res.json"))));
+        Assert.assertArrayEquals(stored, read(loader.getResourceAsStream("desc/zeros.bin")));
+        URL url = loader.getResource("desc/res.json");
+        Assert.assertNotNull(url);
+        Assert.assertEquals("{\"a\":1}", new String(read(url.openStream())));
+        Assert.assertNull(loader.getResourceAsStream("desc/missing.json"));
+    }
+
+    @Test
+    public void ofFile_whenStored() throws Exception {
+        Packager packager = Packager.newInstance().useCompression(CompressionPolicy.storeAll())
+                .addSource("com.tifires.HelloClass", SRC).pack(true, false);
+        Path jar = packager.getLocation();
+
+        InMemoryJarClassLoader loader = InMemoryJarClassLoader.ofFile(jar, getClass().getClassLoader());
+        // a small jar is read onto the heap, the file is not held on any platform
+        Assert.assertTrue(Files.size(jar) <= InMemoryJarClassLoader.MAPPING_THRESHOLD);
+        Files.delete(jar);
+        Class<?> clazz = loader.loadClass("com.tifires.HelloClass");
+        Assert.assertEquals("hello", clazz.getMethod("hello").invoke(clazz.getDeclaredConstructor().newInstance()));
+        Assert.assertEquals(SRC, new String(read(loader.getResourceAsStream("com/tifires/HelloClass.java"))));
+        Assert.assertTrue(loader.getEntryNames().contains("com/tifires/HelloClass.class"));
+    }
+
+    private static byte[] read(InputStream stream) throws IOException {
+        try (InputStream in = stream) {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            for (int read; (read = in.read(buffer)) != -1; )
+                content.write(buffer, 0, read);
+            return content.toByteArray();
+        }
+    }
+}
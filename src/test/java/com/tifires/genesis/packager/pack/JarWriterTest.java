@@ -0,0 +1,185 @@
+package com.tifires.genesis.packager.pack;
+
+import com.tifires.genesis.packager.commons.Resource;
+import com.tifires.genesis.packager.commons.StreamResource;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.JarInputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+public class JarWriterTest {
+
+    @Test
+    public void write_keepsOrderAndContent() throws IOException {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        byte[] random = new byte[10000];
+        new Random(42).nextBytes(random);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (JarWriter writer = new JarWriter(bytes, manifest, CompressionPolicy.newInstance(), executor, 3)) {
+            for (int i = 0; i < 100; i++)
+                writer.write("data/entry" + i + ".json", json(i).getBytes(StandardCharsets.UTF_8));
+            writer.write("data/random.bin", random);
+            writer.write("data/image.png", json(0).getBytes(StandardCharsets.UTF_8));
+            writer.write("data/empty.txt", new byte[0]);
+        } finally {
+            executor.shutdown();
+        }
+
+        try (JarInputStream in = new JarInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            Assert.assertEquals("1.0", in.getManifest().getMainAttributes().getValue(Attributes.Name.MANIFEST_VERSION));
+            for (int i = 0; i < 100; i++) {
+                ZipEntry entry = in.getNextEntry();
+                Assert.assertEquals("data/entry" + i + ".json", entry.getName());
+                Assert.assertEquals(ZipEntry.DEFLATED, entry.getMethod());
+                Assert.assertEquals(json(i), new String(readAll(in), StandardCharsets.UTF_8));
+            }
+            ZipEntry entry = in.getNextEntry();
+            Assert.assertEquals(ZipEntry.STORED, entry.getMethod());
+            Assert.assertArrayEquals(random, readAll(in));
+            Assert.assertEquals(ZipEntry.STORED, in.getNextEntry().getMethod());
+            Assert.assertEquals(json(0), new String(readAll(in), StandardCharsets.UTF_8));
+            Assert.assertEquals("data/empty.txt", in.getNextEntry().getName());
+            Assert.assertEquals(0, readAll(in).length);
+            Assert.assertNull(in.getNextEntry());
+        }
+    }
+
+    @Test(expected = ZipException.class)
+    public void write_whenDuplicate() throws IOException {
+        try (JarWriter writer = new JarWriter(new ByteArrayOutputStream(), null, CompressionPolicy.newInstance(), null)) {
+            writer.write("a.txt", new byte[1]);
+            writer.write("a.txt", new byte[1]);
+        }
+    }
+
+    @Test
+    public void write_whenZip64() throws IOException {
+        File file = File.createTempFile("zip64", ".jar");
+        file.deleteOnExit();
+        int count = 70000;
+        try (JarWriter writer = new JarWriter(new FileOutputStream(file), null, CompressionPolicy.storeAll(), null)) {
+            for (int i = 0; i < count; i++)
+                writer.write("e" + i, new byte[]{(byte) i});
+        }
+        try (ZipFile zip = new JarFile(file)) {
+            Assert.assertEquals(count, zip.size());
+            Assert.assertEquals((byte) 69999, zip.getInputStream(zip.getEntry("e69999")).read());
+        }
+    }
+
+    @Test
+    public void write_whenStoredOver4GB() throws IOException {
+        AtomicInteger reads = new AtomicInteger();
+        Resource huge = new StreamResource("huge.bin", () -> {
+            reads.incrementAndGet();
+            return new ByteArrayInputStream(new byte[0]);
+        }, 0x100000000L);
+        try (JarWriter writer = new JarWriter(new ByteArrayOutputStream(), null, CompressionPolicy.storeAll(), null)) {
+            writer.write("huge.bin", huge);
+            Assert.fail();
+        } catch (ZipException e) {
+            // rejected before anything is read or written
+            Assert.assertEquals(0, reads.get());
+        }
+    }
+
+    @Test
+    public void transferTo_whenNothingIsWritten() throws IOException {
+        File file = File.createTempFile("resource", ".bin");
+        file.deleteOnExit();
+        java.nio.file.Files.write(file.toPath(), new byte[100]);
+        WritableByteChannel stalled = new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer src) {
+                return 0;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        Assert.assertEquals(0, Resource.ofPath("file.bin", file.toPath()).transferTo(stalled));
+    }
+
+    @Test
+    public void write_whenStreamedResources() throws IOException {
+        byte[] random = new byte[300000];
+        new Random(7).nextBytes(random);
+        byte[] text = json(1).getBytes(StandardCharsets.UTF_8);
+        File file = File.createTempFile("resource", ".bin");
+        file.deleteOnExit();
+        java.nio.file.Files.write(file.toPath(), random);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (JarWriter writer = new JarWriter(bytes, null, CompressionPolicy.newInstance(), null).useStreamingThreshold(1024)) {
+            writer.write("small.json", Resource.ofBuffer("small.json", ByteBuffer.wrap(text)));
+            writer.write("file.bin", Resource.ofPath("file.bin", file.toPath()));
+            writer.write("mapped.png", Resource.ofMappedFile("mapped.png", file.toPath()));
+            writer.write("stream.json", Resource.ofStream("stream.json", () -> new ByteArrayInputStream(text)));
+        }
+
+        try (JarInputStream in = new JarInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            Assert.assertArrayEquals(text, readAll(in, "small.json"));
+            Assert.assertArrayEquals(random, readAll(in, "file.bin"));
+            Assert.assertArrayEquals(random, readAll(in, "mapped.png"));
+            Assert.assertArrayEquals(text, readAll(in, "stream.json"));
+            Assert.assertNull(in.getNextEntry());
+        }
+        File jar = File.createTempFile("streamed", ".jar");
+        jar.deleteOnExit();
+        java.nio.file.Files.write(jar.toPath(), bytes.toByteArray());
+        try (ZipFile zip = new JarFile(jar)) {
+            Assert.assertEquals(ZipEntry.STORED, zip.getEntry("mapped.png").getMethod());
+            Assert.assertEquals(random.length, zip.getEntry("file.bin").getSize());
+            Assert.assertArrayEquals(random, readAll(zip.getInputStream(zip.getEntry("file.bin"))));
+            Assert.assertArrayEquals(text, readAll(zip.getInputStream(zip.getEntry("stream.json"))));
+        }
+    }
+
+    private static byte[] readAll(JarInputStream in, String name) throws IOException {
+        Assert.assertEquals(name, in.getNextEntry().getName());
+        return readAll(in);
+    }
+
+    private static String json(int i) {
+        StringBuilder sb = new StringBuilder("{\"id\":").append(i).append(",\"values\":[");
+        for (int j = 0; j < 50; j++)
+            sb.append(j == 0 ? "" : ",").append("\"value").append(j).append('"');
+        return sb.append("]}").toString();
+    }
+
+    private static byte[] readAll(java.io.InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1)
+            out.write(buffer, 0, read);
+        return out.toByteArray();
+    }
+}
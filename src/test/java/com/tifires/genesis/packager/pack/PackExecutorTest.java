@@ -0,0 +1,64 @@
+package com.tifires.genesis.packager.pack;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class PackExecutorTest {
+
+    @Test
+    public void submit_whenFullThenRejected() throws Exception {
+        try (PackExecutor executor = PackExecutor.newInstance(1, 1)) {
+            CountDownLatch release = new CountDownLatch(1);
+            CompletableFuture<String> running = executor.submit(() -> {
+                release.await();
+                return "running";
+            }, 0, TimeUnit.SECONDS, null);
+            CompletableFuture<String> queued = executor.submit(() -> "queued", 0, TimeUnit.SECONDS, null);
+            CompletableFuture<String> rejected = executor.submit(() -> "rejected", 0, TimeUnit.SECONDS, null);
+
+            try {
+                rejected.join();
+                Assert.fail();
+            } catch (CompletionException e) {
+                Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+            }
+            release.countDown();
+            Assert.assertEquals("running", running.get(10, TimeUnit.SECONDS));
+            Assert.assertEquals("queued", queued.get(10, TimeUnit.SECONDS));
+            Assert.assertEquals(0, executor.getPending());
+        }
+    }
+
+    @Test
+    public void submit_whenTimeoutOrCancel() throws Exception {
+        try (PackExecutor executor = PackExecutor.newInstance(1, 1)) {
+            AtomicBoolean cancelled = new AtomicBoolean();
+            CompletableFuture<String> slow = executor.submit(() -> {
+                Thread.sleep(60000);
+                return "slow";
+            }, 100, TimeUnit.MILLISECONDS, () -> cancelled.set(true));
+            try {
+                slow.get(10, TimeUnit.SECONDS);
+                Assert.fail();
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof TimeoutException);
+            }
+            Assert.assertTrue(cancelled.get());
+
+            CountDownLatch started = new CountDownLatch(1);
+            CompletableFuture<String> blocked = executor.submit(() -> {
+                started.countDown();
+                Thread.sleep(60000);
+                return "blocked";
+            }, 0, TimeUnit.SECONDS, null);
+            started.await();
+            CompletableFuture<String> waiting = executor.submit(() -> "waiting", 0, TimeUnit.SECONDS, null);
+            waiting.cancel(true);
+            blocked.cancel(true);
+            Assert.assertEquals("next", executor.submit(() -> "next", 0, TimeUnit.SECONDS, null).get(10, TimeUnit.SECONDS));
+        }
+    }
+}
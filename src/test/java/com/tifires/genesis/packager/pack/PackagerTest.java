@@ -1,15 +1,46 @@
 package com.tifires.genesis.packager.pack;
 
 import com.tifires.genesis.packager.commons.Resource;
+import com.tifires.genesis.packager.compile.CompilationException;
+import com.tifires.genesis.packager.metrics.Instrumentation;
+import com.tifires.genesis.packager.metrics.Metrics;
 import com.tifires.mocks.TestResource;
+import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarInputStream;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
 
 public class PackagerTest {
     private final static Logger LOG = LoggerFactory.getLogger(PackagerTest.class);
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
 
     @Test
     public void pack_classOnly() {
@@ -27,8 +58,266 @@ public class PackagerTest {
         Packager packager = Packager.newInstance().addSource("com.tifires.HelloClass", src)
                 .addResources("desc", resource1, resource2).pack(false,false);
         LOG.info(packager.getLocation().toString());
+
+        try (JarFile jar = new JarFile(packager.getLocation().toFile())) {
+            Assert.assertEquals("1.0.0", jar.getManifest().getMainAttributes().getValue(Attributes.Name.MANIFEST_VERSION));
+            Assert.assertNotNull(jar.getEntry("com/tifires/HelloClass.class"));
+            ZipEntry entry = jar.getEntry("desc/res1.json");
+            Assert.assertEquals(resource1.getContent().length, entry.getSize());
+        }
+    }
+
+
+    @Test
+    public void pack_inMemory() throws IOException {
+        String src = genMockJavaSrc();
+        Resource resource = new Resource("res1.json", new TestResource("res1", 1));
+        int tempDirs = countTempDirs();
+
+        Packager packager = Packager.newInstance().addSource("com.tifires.HelloClass", src).addResources("desc", resource);
+        ByteBuffer buffer = packager.packToBuffer(false);
+        Assert.assertNull(packager.getLocation());
+        Assert.assertEquals(tempDirs, countTempDirs());
+
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        try (JarInputStream in = new JarInputStream(new ByteArrayInputStream(bytes))) {
+            Assert.assertEquals("1.0.0", in.getManifest().getMainAttributes().getValue(Attributes.Name.MANIFEST_VERSION));
+            Assert.assertEquals("desc/res1.json", in.getNextJarEntry().getName());
+            Assert.assertEquals("com/tifires/HelloClass.class", in.getNextJarEntry().getName());
+            Assert.assertNull(in.getNextJarEntry());
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Packager.newInstance().addSource("com.tifires.HelloClass", src).addResources("desc", resource).packTo(out, false);
+        Assert.assertEquals(bytes.length, out.size());
+    }
+
+    @Test
+    public void pack_nestedClassesAndDefaultPackage() throws IOException {
+        String outer = "package com.tifires;\n"
+                + "public class Outer {\n"
+                + "   public static class Inner { }\n"
+                + "   public Runnable task() { return new Runnable() { public void run() { } }; }\n"
+                + "}";
+        String plain = "public class Plain { }";
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Packager.newInstance().addSource("com.tifires.Outer", outer).addSource("Plain", plain).packTo(out, true);
+
+        Set<String> names = new TreeSet<>();
+        try (JarInputStream in = new JarInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry())
+                names.add(entry.getName());
+        }
+        Assert.assertEquals(new TreeSet<>(Arrays.asList("Plain.class", "Plain.java",
+                "com/tifires/Outer.class", "com/tifires/Outer$Inner.class", "com/tifires/Outer$1.class",
+                "com/tifires/Outer.java")), names);
+    }
+
+    @Test
+    public void pack_reproducible() throws IOException {
+        String src = genMockJavaSrc();
+        byte[] first = packReproducible(src, new Resource("b.json", "{}".getBytes()), new Resource("a.json", "[]".getBytes()));
+        byte[] second = packReproducible(src, new Resource("a.json", "[]".getBytes()), new Resource("b.json", "{}".getBytes()));
+        Assert.assertArrayEquals(first, second);
+
+        try (JarInputStream in = new JarInputStream(new ByteArrayInputStream(first))) {
+            Assert.assertEquals("com/tifires/HelloClass.class", in.getNextJarEntry().getName());
+            ZipEntry entry = in.getNextJarEntry();
+            Assert.assertEquals("desc/a.json", entry.getName());
+            Assert.assertEquals(JarWriter.REPRODUCIBLE_TIME, LocalDateTime.ofInstant(
+                    Instant.ofEpochMilli(entry.getTime()), ZoneId.systemDefault()));
+            Assert.assertEquals("desc/b.json", in.getNextJarEntry().getName());
+        }
+    }
+
+    private byte[] packReproducible(String src, Resource... resources) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Packager.newInstance().useReproducible(true).useExecutor(null)
+                .addSource("com.tifires.HelloClass", src).addResources("desc", resources).packTo(out, false);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void pack_fromArtifactStore() throws IOException {
+        ArtifactStore store = ArtifactStore.newInstance(folder.newFolder("store").toPath());
+        String src = genMockJavaSrc();
+
+        Packager first = Packager.newInstance().useReproducible(true).useArtifactStore(store)
+                .addSource("com.tifires.HelloClass", src).pack(false, false);
+        String hash = first.getInputHash(false);
+        Assert.assertEquals(store.get(hash), first.getLocation());
+
+        // same inputs, served from the store without compiling nor writing anything
+        Map<String, AtomicInteger> measures = new ConcurrentHashMap<>();
+        Instrumentation counting = new Instrumentation() {
+            @Override
+            public void time(String metric, long nanos) {
+                measures.computeIfAbsent(metric, k -> new AtomicInteger()).incrementAndGet();
+            }
+        };
+        Packager second = Packager.newInstance().useReproducible(true).useArtifactStore(store)
+                .useInstrumentation(counting).addSource("com.tifires.HelloClass", src);
+        Assert.assertEquals(hash, second.getInputHash(false));
+        Assert.assertEquals(first.getLocation(), second.pack(false, false).getLocation());
+        Assert.assertNull(measures.get(Metrics.COMPILE_JAVAC));
+        Assert.assertNull(measures.get(Metrics.PACK));
+
+        Packager changed = Packager.newInstance().useReproducible(true).useArtifactStore(store)
+                .addSource("com.tifires.HelloClass", src.replace("Hello", "Hi"));
+        Assert.assertNotEquals(hash, changed.getInputHash(false));
+        Assert.assertNotEquals(hash, changed.getInputHash(true));
+    }
+
+    @Test
+    public void pack_failedEntryIsNotStored() throws Exception {
+        ArtifactStore store = ArtifactStore.newInstance(folder.newFolder("store").toPath());
+        // readable once, for the input hash, then failing when the jar is written
+        AtomicInteger reads = new AtomicInteger();
+        Resource flaky = Resource.ofStream("flaky.bin", () -> reads.getAndIncrement() == 0
+                ? new ByteArrayInputStream(new byte[16])
+                : new InputStream() {
+                    @Override
+                    public int read() throws IOException {
+                        throw new IOException("disk gone");
+                    }
+                });
+        Packager packager = Packager.newInstance().useArtifactStore(store)
+                .addSource("com.tifires.HelloClass", genMockJavaSrc()).addResources("desc", flaky);
+        try {
+            packager.packAsync(false, false).join();
+            Assert.fail();
+        } catch (CompletionException e) {
+            Assert.assertEquals("disk gone", e.getCause().getMessage());
+        }
+        Assert.assertNull(packager.getLocation());
+        try (Stream<Path> stored = Files.list(store.getDirectory())) {
+            Assert.assertEquals(0, stored.count());
+        }
+    }
+
+    @Test
+    public void update_copiesUnchangedEntries() throws IOException {
+        String src = genMockJavaSrc();
+        byte[] kept = new byte[8192];
+        Packager first = Packager.newInstance().useCompression(CompressionPolicy.deflateAll(9))
+                .addSource("com.tifires.HelloClass", src)
+                .addResources("desc", new Resource("kept.txt", kept), new Resource("changed.txt", "v1".getBytes()),
+                        new Resource("removed.txt", "gone".getBytes()))
+                .pack(false, false);
+        Path jar = first.getLocation();
+
+        // stored entries tell rewritten entries apart from copied ones
+        Packager second = Packager.newInstance().useCompression(CompressionPolicy.storeAll())
+                .addSource("com.tifires.HelloClass", src)
+                .addResources("desc", new Resource("kept.txt", kept), new Resource("changed.txt", "v2".getBytes()),
+                        new Resource("added.txt", "new".getBytes()));
+        Assert.assertEquals(jar, second.update(jar, true).getLocation());
+
+        try (JarFile updated = new JarFile(jar.toFile())) {
+            Assert.assertEquals(ZipEntry.DEFLATED, updated.getEntry("desc/kept.txt").getMethod());
+            Assert.assertEquals(ZipEntry.DEFLATED, updated.getEntry("com/tifires/HelloClass.class").getMethod());
+            Assert.assertEquals(ZipEntry.STORED, updated.getEntry("desc/changed.txt").getMethod());
+            Assert.assertEquals(ZipEntry.STORED, updated.getEntry("desc/added.txt").getMethod());
+            Assert.assertEquals(ZipEntry.STORED, updated.getEntry("com/tifires/HelloClass.java").getMethod());
+            Assert.assertNull(updated.getEntry("desc/removed.txt"));
+            Assert.assertEquals("1.0.0", updated.getManifest().getMainAttributes().getValue(Attributes.Name.MANIFEST_VERSION));
+            try (InputStream in = updated.getInputStream(updated.getEntry("desc/kept.txt"))) {
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                for (int read; (read = in.read(buffer)) != -1; )
+                    content.write(buffer, 0, read);
+                Assert.assertArrayEquals(kept, content.toByteArray());
+            }
+            try (InputStream in = updated.getInputStream(updated.getEntry("desc/changed.txt"))) {
+                Assert.assertEquals('2', in.read() == 'v' ? in.read() : -1);
+            }
+        }
     }
 
+    @Test
+    public void update_whenEntryFailsOrStored() throws IOException {
+        String src = genMockJavaSrc();
+        Path jar = Packager.newInstance().setLocation(folder.getRoot().toPath(), "app")
+                .addSource("com.tifires.HelloClass", src).pack(false, false).getLocation();
+        byte[] before = Files.readAllBytes(jar);
+
+        Resource broken = Resource.ofStream("broken.bin", () -> new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("disk gone");
+            }
+        });
+        try {
+            Packager.newInstance().addSource("com.tifires.HelloClass", src).addResources("desc", broken).update(jar, false);
+            Assert.fail();
+        } catch (IOException e) {
+            Assert.assertEquals("disk gone", e.getMessage());
+        }
+        Assert.assertArrayEquals(before, Files.readAllBytes(jar));
+
+        ArtifactStore store = ArtifactStore.newInstance(folder.newFolder("store").toPath());
+        Packager stored = Packager.newInstance().useArtifactStore(store).addSource("com.tifires.HelloClass", src).pack(false, false);
+        try {
+            stored.update(stored.getLocation(), false);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(store.contains(stored.getLocation()));
+        }
+    }
+
+    @Test
+    public void pack_objectResources() throws IOException {
+        TestResource value = new TestResource("res1", 1);
+        Resource eager = new Resource("eager.json", value);
+        Resource streamed = Resource.ofObject("streamed.json", value);
+        Assert.assertEquals(-1, streamed.getSize());
+        Assert.assertArrayEquals(eager.getContent(), streamed.getContent());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Packager.newInstance().addSource("com.tifires.HelloClass", genMockJavaSrc())
+                .addResources("desc", eager, streamed).packTo(out, false);
+        try (JarInputStream in = new JarInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+                if (!entry.getName().endsWith(".json"))
+                    continue;
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+                byte[] buffer = new byte[1024];
+                for (int read; (read = in.read(buffer)) != -1; )
+                    content.write(buffer, 0, read);
+                Assert.assertArrayEquals(eager.getContent(), content.toByteArray());
+            }
+        }
+    }
+
+    @Test
+    public void packAsync_whenTypical() throws Exception {
+        String src = genMockJavaSrc();
+        Path jar = Packager.newInstance().addSource("com.tifires.HelloClass", src).packAsync(false, false)
+                .get(60, TimeUnit.SECONDS);
+        try (JarFile file = new JarFile(jar.toFile())) {
+            Assert.assertNotNull(file.getEntry("com/tifires/HelloClass.class"));
+        }
+
+        byte[] bytes = Packager.newInstance().addSource("com.tifires.HelloClass", src).packToBytesAsync(false)
+                .get(60, TimeUnit.SECONDS);
+        try (JarInputStream in = new JarInputStream(new ByteArrayInputStream(bytes))) {
+            Assert.assertEquals("com/tifires/HelloClass.class", in.getNextJarEntry().getName());
+        }
+
+        try {
+            Packager.newInstance().addSource("com.tifires.HelloClass", "broken").packToBytesAsync(false).join();
+            Assert.fail();
+        } catch (CompletionException e) {
+            Assert.assertTrue(e.getCause() instanceof CompilationException);
+        }
+    }
+
+    private static int countTempDirs() {
+        File[] dirs = new File(System.getProperty("java.io.tmpdir")).listFiles((dir, name) -> name.startsWith("genesis"));
+        return dirs == null ? 0 : dirs.length;
+    }
 
     private String genMockJavaSrc() {
         StringBuilder sourceCode = new StringBuilder();